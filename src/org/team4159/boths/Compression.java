@@ -0,0 +1,338 @@
+package org.team4159.boths;
+
+import java.util.Hashtable;
+import java.util.Vector;
+import org.team4159.boths.util.Deflater;
+
+/**
+ * Compresses the bodies of responses with the {@code gzip} or {@code deflate}
+ * content coding, whichever the client prefers according to its {@code Accept-Encoding}
+ * header, before they are sent.
+ * 
+ * <p>
+ * Only responses with a status of 2xx, a compressible content type (see
+ * {@link #setCompressibleTypes(String[])}) and a body of at least
+ * {@link #setMinimumSize(int) the minimum size} are compressed, and only if that makes
+ * them smaller. {@link StreamingResponse}s and responses that already have a
+ * {@code Content-Encoding} are left alone, as are responses to {@code HEAD}
+ * requests, whose body is not sent. The bytes saved are counted for each
+ * route; see {@link Route#getBytesSavedByCompression()}.
+ * </p>
+ * 
+ * <p>
+ * Bodies are compressed on the fly with a {@link Deflater} reused by each worker thread.
+ * The compressed forms of responses marked with {@link Response#setCacheKey(String)},
+ * such as the files served by a {@link org.team4159.boths.views.DirectoryView}, are
+ * kept in a cache of limited size, so that static content is compressed only once
+ * for each coding.
+ * </p>
+ * 
+ * <p>
+ * The response itself is left as it is: the compressed body is sent in its place,
+ * so a view may send the same response to clients that do not accept compression.
+ * </p>
+ */
+public class Compression
+{
+	/**
+	 * A compressed form of the body of a response, and the content coding it is in.
+	 */
+	static class Body
+	{
+		final String coding;
+		final byte[] data;
+		final int length;
+		
+		Body (String coding, byte[] data, int length)
+		{
+			this.coding = coding;
+			this.data = data;
+			this.length = length;
+		}
+	}
+	
+	private static final String GZIP = "gzip";
+	private static final String DEFLATE = "deflate";
+	
+	// stands for a compressed form that would not be smaller
+	private static final byte[] NOT_SMALLER = new byte[0];
+	
+	private static boolean enabled = true;
+	private static int minimumSize = 1024;
+	private static String[] compressibleTypes = {
+		"text/", "application/javascript", "application/json", "application/xml", "image/svg+xml"
+	};
+	private static int cacheSize = 262144;
+	
+	private static final Hashtable cache = new Hashtable ();
+	private static final Vector cacheOrder = new Vector ();
+	private static int cacheBytes = 0;
+	
+	/**
+	 * Sets whether responses are compressed at all. Enabled by default.
+	 * 
+	 * @param e	Whether to compress responses.
+	 */
+	public static void setEnabled (boolean e)
+	{
+		enabled = e;
+	}
+	
+	/**
+	 * Sets the size of the smallest body to compress, in bytes. Default is 1 KiB.
+	 * 
+	 * @param sz	The minimum size.
+	 */
+	public static void setMinimumSize (int sz)
+	{
+		minimumSize = sz;
+	}
+	
+	/**
+	 * Sets the content types of the responses to compress. An entry ending with
+	 * {@code '/'}, such as {@code "text/"}, matches every subtype. Default is text,
+	 * JavaScript, JSON, XML and SVG.
+	 * 
+	 * @param types	The content types, without parameters.
+	 */
+	public static void setCompressibleTypes (String[] types)
+	{
+		String[] copy = new String[types.length];
+		System.arraycopy (types, 0, copy, 0, types.length);
+		compressibleTypes = copy;
+	}
+	
+	/**
+	 * Sets the total size of the compressed forms of responses marked with
+	 * {@link Response#setCacheKey(String)} to keep, in bytes. Default is 256 KiB.
+	 * The oldest are dropped first.
+	 * 
+	 * @param sz	The size of the cache, or 0 to cache nothing.
+	 */
+	public static void setCacheSize (int sz)
+	{
+		synchronized (cache)
+		{
+			cacheSize = sz;
+			evict (0);
+		}
+	}
+	
+	/**
+	 * Compresses the body of a response if the request allows it and it is worth it.
+	 * 
+	 * @param req	The request.
+	 * @param res	The response to the request, which is not sent yet.
+	 * @param route	The route handling the request.
+	 * @return		The compressed body, valid until the next response is compressed by
+	 * 				the same thread, or null if the body should be sent as it is.
+	 */
+	static Body compress (Request req, Response res, Route route)
+	{
+		if (!enabled || !res.gathersBody ())
+			return null;
+		
+		int status = res.getStatusCode ();
+		if (status < 200 || status >= 300 || status == 204 || res.hasHeader (HeaderNames.CONTENT_ENCODING))
+			return null;
+		if (!isCompressible (res.getHeader (HeaderNames.CONTENT_TYPE)))
+			return null;
+		
+		// the body may come in another coding for another client
+		addVary (res);
+		
+		// the body of a response to HEAD is not sent, so there is nothing to compress
+		if (req.getMethod () == Method.HEAD)
+			return null;
+		
+		int size = res.size ();
+		if (size < minimumSize)
+			return null;
+		
+		String coding = negotiate (req.getHeader (HeaderNames.ACCEPT_ENCODING));
+		if (coding == null)
+			return null;
+		int format = coding == GZIP ? Deflater.GZIP : Deflater.ZLIB;
+		
+		Body body;
+		String key = res.getCacheKey ();
+		if (key != null)
+		{
+			key = key + '\n' + coding + '\n' + size;
+			byte[] compressed;
+			synchronized (cache)
+			{
+				compressed = (byte[]) cache.get (key);
+			}
+			
+			if (compressed == null)
+			{
+				Deflater deflater = obtainDeflater ();
+				int n = res.deflateBody (deflater, format);
+				if (n < size)
+				{
+					compressed = new byte[n];
+					System.arraycopy (deflater.getBuffer (), 0, compressed, 0, n);
+				}
+				else
+					compressed = NOT_SMALLER;
+				
+				synchronized (cache)
+				{
+					if (compressed.length <= cacheSize && !cache.containsKey (key))
+					{
+						evict (compressed.length);
+						cache.put (key, compressed);
+						cacheOrder.addElement (key);
+						cacheBytes += compressed.length;
+					}
+				}
+			}
+			
+			if (compressed == NOT_SMALLER)
+				return null;
+			body = new Body (coding, compressed, compressed.length);
+		}
+		else
+		{
+			Deflater deflater = obtainDeflater ();
+			int n = res.deflateBody (deflater, format);
+			if (n >= size)
+				return null;
+			body = new Body (coding, deflater.getBuffer (), n);
+		}
+		
+		route.recordCompression (size, body.length);
+		return body;
+	}
+	
+	/**
+	 * Adds {@code Accept-Encoding} to the {@code Vary} header of a response,
+	 * keeping whatever the view listed there.
+	 */
+	private static void addVary (Response res)
+	{
+		String vary = res.getHeader (HeaderNames.VARY);
+		if (vary == null)
+		{
+			res.setHeader (HeaderNames.VARY, HeaderNames.ACCEPT_ENCODING);
+			return;
+		}
+		
+		int pos = 0;
+		int len = vary.length ();
+		while (pos < len)
+		{
+			int comma = vary.indexOf (',', pos);
+			if (comma < 0)
+				comma = len;
+			
+			String item = vary.substring (pos, comma).trim ();
+			if (item.equals ("*") || item.toLowerCase ().equals ("accept-encoding"))
+				return;
+			pos = comma + 1;
+		}
+		
+		res.setHeader (HeaderNames.VARY, vary + ", " + HeaderNames.ACCEPT_ENCODING);
+	}
+	
+	/**
+	 * Drops the oldest entries of the cache until there is room for the given number of bytes.
+	 */
+	private static void evict (int room)
+	{
+		while (cacheBytes + room > cacheSize && cacheOrder.size () > 0)
+		{
+			Object oldest = cacheOrder.elementAt (0);
+			cacheOrder.removeElementAt (0);
+			cacheBytes -= ((byte[]) cache.remove (oldest)).length;
+		}
+	}
+	
+	private static Deflater obtainDeflater ()
+	{
+		Recycler recycler = Recycler.current ();
+		return recycler != null ? recycler.obtainDeflater () : new Deflater ();
+	}
+	
+	private static boolean isCompressible (String contentType)
+	{
+		if (contentType == null)
+			return false;
+		
+		int semicolon = contentType.indexOf (';');
+		String type = (semicolon >= 0 ? contentType.substring (0, semicolon) : contentType).trim ().toLowerCase ();
+		
+		String[] types = compressibleTypes;
+		for (int i = 0; i < types.length; i++)
+		{
+			String t = types[i];
+			if (t.endsWith ("/") ? type.startsWith (t) : type.equals (t))
+				return true;
+		}
+		return false;
+	}
+	
+	/**
+	 * Chooses a content coding from the value of an {@code Accept-Encoding} header,
+	 * preferring gzip when the client accepts both.
+	 * 
+	 * @return	{@link #GZIP}, {@link #DEFLATE}, or null if neither is acceptable.
+	 */
+	static String negotiate (String acceptEncoding)
+	{
+		if (acceptEncoding == null)
+			return null;
+		
+		// -1 if not listed, otherwise whether the quality is above zero
+		int gzip = -1, deflate = -1, any = -1;
+		
+		int pos = 0;
+		int len = acceptEncoding.length ();
+		while (pos < len)
+		{
+			int comma = acceptEncoding.indexOf (',', pos);
+			if (comma < 0)
+				comma = len;
+			
+			String item = acceptEncoding.substring (pos, comma);
+			pos = comma + 1;
+			
+			int semicolon = item.indexOf (';');
+			String coding = (semicolon >= 0 ? item.substring (0, semicolon) : item).trim ().toLowerCase ();
+			int acceptable = semicolon >= 0 && isZeroQuality (item.substring (semicolon + 1)) ? 0 : 1;
+			
+			if (coding.equals (GZIP) || coding.equals ("x-gzip"))
+				gzip = acceptable;
+			else if (coding.equals (DEFLATE))
+				deflate = acceptable;
+			else if (coding.equals ("*"))
+				any = acceptable;
+		}
+		
+		if (gzip == 1 || (gzip == -1 && any == 1))
+			return GZIP;
+		if (deflate == 1 || (deflate == -1 && any == 1))
+			return DEFLATE;
+		return null;
+	}
+	
+	/**
+	 * Checks whether the parameters of an item of {@code Accept-Encoding}
+	 * give it a quality of zero, as in {@code "q=0"} or {@code "q=0.000"}.
+	 */
+	private static boolean isZeroQuality (String params)
+	{
+		params = params.trim ();
+		if (!params.startsWith ("q=") && !params.startsWith ("Q="))
+			return false;
+		
+		for (int i = 2; i < params.length (); i++)
+		{
+			char c = params.charAt (i);
+			if (c != '0' && c != '.')
+				return false;
+		}
+		return true;
+	}
+}
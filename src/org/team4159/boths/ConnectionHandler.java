@@ -2,15 +2,14 @@ package org.team4159.boths;
 
 import javax.microedition.io.StreamConnection;
 import java.io.*;
-import java.util.Vector;
 
 class ConnectionHandler
 {
-	Vector routes;
+	private final Server server;
 
 	ConnectionHandler (Server server)
 	{
-		this.routes = server.routes;
+		this.server = server;
 	}
 	
 	void handleConnection (StreamConnection sc)
@@ -36,60 +35,122 @@ class ConnectionHandler
 	void handleConnection (InputStream is, OutputStream os)
 	{
 		Request req;
-		View view;
-		Response res;
 		
 		try {
 			req = new Request (is);
 		} catch (RequestException e) {
 			e.printStackTrace ();
-			sendError (500, os);
+			sendError (500, os, false);
 			return;
 		}
 		
-		int nroutes = routes.size ();
-		Route route = null;
+		try {
+			handleRequest (req, os);
+		} finally {
+			req.deleteFiles ();
+			try {
+				req.discardBody ();
+			} catch (IOException e) {}
+			req.release ();
+		}
+	}
+	
+	void handleRequest (Request req, OutputStream os)
+	{
+		View view;
+		Response res;
+		boolean headOnly = req.getMethod () == Method.HEAD;
 		
-		for (int i = 0; i < nroutes; i++)
+		Route route = server.getRouter ().find (req);
+		if (route == null)
 		{
-			Route r = (Route) routes.elementAt (i);
-			if (r.matches (req.path))
-			{
-				route = r;
-				break;
-			}
+			sendError (404, os, headOnly);
+			return;
 		}
 		
-		if (route == null)
+		if (!route.allowsMethod (req.getMethod ()))
 		{
-			sendError (404, os);
+			res = Response.createErrorResponse (405);
+			res.setHeader (HeaderNames.ALLOW, route.getAllowedMethods ());
+			res.setRecyclable (true);
+			send (res, null, os, headOnly);
+			recycle (res);
 			return;
 		}
 		
 		view = route.getView (req);
+		if (view == null)
+		{
+			sendError (500, os, headOnly);
+			return;
+		}
+		
+		try {
+			handleRequest (req, route, view, os);
+		} finally {
+			route.releaseView (view);
+		}
+	}
+	
+	private void handleRequest (Request req, Route route, View view, OutputStream os)
+	{
+		Response res;
+		boolean headOnly = req.getMethod () == Method.HEAD;
+		
+		// decide on the body before the client sends it
+		if (req.getHeader (HeaderNames.EXPECT) != null && !req.version.equals ("HTTP/1.0") && !req.expectsContinue ())
+		{
+			sendError (417, os, headOnly);
+			return;
+		}
+		
+		if (req.hasBody () && !view.acceptsBody (req, route))
+		{
+			sendError (413, os, headOnly);
+			return;
+		}
+		
+		req.setContinueOutputStream (os);
 		
 		try {
 			res = view.getResponse (req, route);
 		} catch (Throwable e) {
 			System.err.println ("error while processing view");
 			e.printStackTrace ();
-			sendError (500, os);
+			sendError (500, os, headOnly);
 			return;
 		}
 		
-		send (res, os);
+		// set for every request, since a view may send the same response to several clients
+		if (res instanceof StreamingResponse)
+			((StreamingResponse) res).chunked = !req.version.equals ("HTTP/1.0");
+		
+		Compression.Body compressed = Compression.compress (req, res, route);
+		
+		req.startResponse ();
+		send (res, compressed, os, headOnly);
 		
 		try {
-			view.postResponse (req, res, is, os);
+			view.postResponse (req, res, req.getInputStream (), os);
 		} catch (IOException e) {
 			e.printStackTrace ();
 		}
+		
+		recycle (res);
 	}
 
-	void send (Response res, OutputStream os)
+	void send (Response res, Compression.Body compressed, OutputStream os, boolean headOnly)
 	{
 		try {
-			res.writeResponseToOutputStream (os);
+			if (compressed != null)
+				res.writeCompressedResponseToOutputStream (os, compressed, headOnly);
+			else if (headOnly)
+			{
+				res.writeHeadToOutputStream (os, true);
+				os.flush ();
+			}
+			else
+				res.writeResponseToOutputStream (os);
 		} catch (Throwable e) {
 			System.err.println ("failed to send response to client");
 			e.printStackTrace ();
@@ -97,8 +158,20 @@ class ConnectionHandler
 		}
 	}
 
-	void sendError (int code, OutputStream os)
+	void sendError (int code, OutputStream os, boolean headOnly)
+	{
+		try {
+			Response.writeErrorResponse (code, os, headOnly);
+		} catch (Throwable e) {
+			System.err.println ("failed to send response to client");
+			e.printStackTrace ();
+		}
+	}
+	
+	private void recycle (Response res)
 	{
-		send (Response.createErrorResponse (code), os);
+		Recycler recycler = Recycler.current ();
+		if (recycler != null)
+			recycler.recycle (res);
 	}
 }
\ No newline at end of file
@@ -0,0 +1,59 @@
+package org.team4159.boths;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * The buffer in which the head of a {@link Response} is serialized, followed by
+ * its body if the body is small, so that both reach the socket in one write.
+ * A worker thread keeps one and reuses it for every response.
+ */
+class HeadBuffer extends ByteArrayOutputStream
+{
+	HeadBuffer (int size)
+	{
+		super (size);
+	}
+	
+	/**
+	 * Appends the characters of a string, each of which must fit in one byte.
+	 */
+	void writeLatin1 (String str)
+	{
+		int len = str.length ();
+		ensureCapacity (count + len);
+		
+		byte[] b = buf;
+		int n = count;
+		for (int i = 0; i < len; i++)
+			b[n++] = (byte) str.charAt (i);
+		count = n;
+	}
+	
+	/**
+	 * Gets the number of bytes that can be written before the buffer has to grow.
+	 */
+	int capacity ()
+	{
+		return buf.length;
+	}
+	
+	/**
+	 * Writes the contents of the buffer to a stream in one call, without copying them.
+	 */
+	void writeContentsTo (OutputStream os) throws IOException
+	{
+		os.write (buf, 0, count);
+	}
+	
+	private void ensureCapacity (int capacity)
+	{
+		if (capacity <= buf.length)
+			return;
+		
+		byte[] newbuf = new byte[Math.max (buf.length << 1, capacity)];
+		System.arraycopy (buf, 0, newbuf, 0, count);
+		buf = newbuf;
+	}
+}
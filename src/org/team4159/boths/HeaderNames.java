@@ -0,0 +1,176 @@
+package org.team4159.boths;
+
+/**
+ * Canonical names of well-known HTTP headers.
+ * 
+ * <p>
+ * Header names of requests are matched against this table directly from the
+ * bytes received, and names passed to {@link Request#getHeader(String)} and
+ * {@link Response#setHeader(String, String)} are resolved to these constants,
+ * so that looking up or setting a well-known header creates no strings and
+ * compares no characters. Using the constants themselves is fastest.
+ * </p>
+ */
+public class HeaderNames
+{
+	public static final String ACCEPT = "Accept";
+	public static final String ACCEPT_ENCODING = "Accept-Encoding";
+	public static final String ACCEPT_LANGUAGE = "Accept-Language";
+	public static final String ALLOW = "Allow";
+	public static final String AUTHORIZATION = "Authorization";
+	public static final String CACHE_CONTROL = "Cache-Control";
+	public static final String CONNECTION = "Connection";
+	public static final String CONTENT_DISPOSITION = "Content-Disposition";
+	public static final String CONTENT_ENCODING = "Content-Encoding";
+	public static final String CONTENT_LENGTH = "Content-Length";
+	public static final String CONTENT_TYPE = "Content-Type";
+	public static final String COOKIE = "Cookie";
+	public static final String DATE = "Date";
+	public static final String ETAG = "ETag";
+	public static final String EXPECT = "Expect";
+	public static final String HOST = "Host";
+	public static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+	public static final String IF_NONE_MATCH = "If-None-Match";
+	public static final String LAST_MODIFIED = "Last-Modified";
+	public static final String LOCATION = "Location";
+	public static final String ORIGIN = "Origin";
+	public static final String PRAGMA = "Pragma";
+	public static final String REFERER = "Referer";
+	public static final String SEC_WEBSOCKET_ACCEPT = "Sec-WebSocket-Accept";
+	public static final String SEC_WEBSOCKET_EXTENSIONS = "Sec-WebSocket-Extensions";
+	public static final String SEC_WEBSOCKET_KEY = "Sec-WebSocket-Key";
+	public static final String SEC_WEBSOCKET_PROTOCOL = "Sec-WebSocket-Protocol";
+	public static final String SEC_WEBSOCKET_VERSION = "Sec-WebSocket-Version";
+	public static final String SERVER = "Server";
+	public static final String SET_COOKIE = "Set-Cookie";
+	public static final String TRANSFER_ENCODING = "Transfer-Encoding";
+	public static final String UPGRADE = "Upgrade";
+	public static final String USER_AGENT = "User-Agent";
+	public static final String VARY = "Vary";
+	
+	private static final String[] NAMES = {
+		ACCEPT, ACCEPT_ENCODING, ACCEPT_LANGUAGE, ALLOW, AUTHORIZATION, CACHE_CONTROL,
+		CONNECTION, CONTENT_DISPOSITION, CONTENT_ENCODING, CONTENT_LENGTH, CONTENT_TYPE,
+		COOKIE, DATE, ETAG, EXPECT, HOST, IF_MODIFIED_SINCE, IF_NONE_MATCH, LAST_MODIFIED,
+		LOCATION, ORIGIN, PRAGMA, REFERER, SEC_WEBSOCKET_ACCEPT, SEC_WEBSOCKET_EXTENSIONS,
+		SEC_WEBSOCKET_KEY, SEC_WEBSOCKET_PROTOCOL, SEC_WEBSOCKET_VERSION, SERVER, SET_COOKIE,
+		TRANSFER_ENCODING, UPGRADE, USER_AGENT, VARY
+	};
+	
+	/**
+	 * The start of a header line for each name, such as {@code "Host: "}.
+	 */
+	private static final byte[][] LINE_PREFIXES = new byte[NAMES.length][];
+	
+	// open-addressing table of id + 1, indexed by case-insensitive hash
+	private static final int[] TABLE = new int[128];
+	
+	static {
+		for (int id = 0; id < NAMES.length; id++)
+		{
+			String name = NAMES[id];
+			int len = name.length ();
+			
+			byte[] prefix = new byte[len + 2];
+			for (int i = 0; i < len; i++)
+				prefix[i] = (byte) name.charAt (i);
+			prefix[len] = ':';
+			prefix[len + 1] = ' ';
+			LINE_PREFIXES[id] = prefix;
+			
+			int slot = hash (name) & (TABLE.length - 1);
+			while (TABLE[slot] != 0)
+				slot = (slot + 1) & (TABLE.length - 1);
+			TABLE[slot] = id + 1;
+		}
+	}
+	
+	/**
+	 * Finds the well-known header with the given name, ignoring case.
+	 * 
+	 * @return	The ID of the header, or -1 if it is not well-known.
+	 */
+	static int lookup (String name)
+	{
+		int len = name.length ();
+		int h = hash (name);
+		
+		for (int slot = h & (TABLE.length - 1); TABLE[slot] != 0; slot = (slot + 1) & (TABLE.length - 1))
+		{
+			int id = TABLE[slot] - 1;
+			String known = NAMES[id];
+			if (known == name)
+				return id;
+			if (known.length () != len)
+				continue;
+			
+			int i = 0;
+			while (i < len && toLowerCase (known.charAt (i)) == toLowerCase (name.charAt (i)))
+				i++;
+			if (i == len)
+				return id;
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * Finds the well-known header whose name is in a range of bytes, ignoring case.
+	 * 
+	 * @return	The ID of the header, or -1 if it is not well-known.
+	 */
+	static int lookup (byte[] buf, int start, int end)
+	{
+		int len = end - start;
+		int h = 0;
+		for (int i = start; i < end; i++)
+			h = 31 * h + toLowerCase (buf[i] & 0xff);
+		
+		for (int slot = h & (TABLE.length - 1); TABLE[slot] != 0; slot = (slot + 1) & (TABLE.length - 1))
+		{
+			int id = TABLE[slot] - 1;
+			byte[] known = LINE_PREFIXES[id];
+			if (known.length - 2 != len)
+				continue;
+			
+			int i = 0;
+			while (i < len && toLowerCase (known[i]) == toLowerCase (buf[start + i] & 0xff))
+				i++;
+			if (i == len)
+				return id;
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * Gets the canonical name of a well-known header.
+	 */
+	static String name (int id)
+	{
+		return NAMES[id];
+	}
+	
+	/**
+	 * Gets the start of a header line for a well-known header, such as {@code "Host: "}.
+	 * The returned array must not be modified.
+	 */
+	static byte[] linePrefix (int id)
+	{
+		return LINE_PREFIXES[id];
+	}
+	
+	private static int hash (String name)
+	{
+		int h = 0;
+		int len = name.length ();
+		for (int i = 0; i < len; i++)
+			h = 31 * h + toLowerCase (name.charAt (i));
+		return h;
+	}
+	
+	private static int toLowerCase (int c)
+	{
+		return (c >= 'A' && c <= 'Z') ? c + ('a' - 'A') : c;
+	}
+}
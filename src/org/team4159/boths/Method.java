@@ -0,0 +1,103 @@
+package org.team4159.boths;
+
+/**
+ * The HTTP methods known to the server. There is exactly one instance per
+ * method, so instances can be compared with {@code ==}.
+ * 
+ * <p>
+ * The method of a request is parsed directly from the bytes received and is
+ * available through {@link Request#getMethod()}.
+ * </p>
+ */
+public final class Method
+{
+	public static final Method GET = new Method ("GET", 0);
+	public static final Method HEAD = new Method ("HEAD", 1);
+	public static final Method POST = new Method ("POST", 2);
+	public static final Method PUT = new Method ("PUT", 3);
+	public static final Method DELETE = new Method ("DELETE", 4);
+	public static final Method OPTIONS = new Method ("OPTIONS", 5);
+	public static final Method PATCH = new Method ("PATCH", 6);
+	public static final Method TRACE = new Method ("TRACE", 7);
+	public static final Method CONNECT = new Method ("CONNECT", 8);
+	
+	private static final Method[] VALUES = {
+		GET, HEAD, POST, PUT, DELETE, OPTIONS, PATCH, TRACE, CONNECT
+	};
+	
+	/**
+	 * The name of the method, such as {@code "GET"}.
+	 */
+	public final String name;
+	
+	/**
+	 * The position of this method in the order of declaration, from 0.
+	 */
+	public final int ordinal;
+	
+	private final byte[] bytes;
+	
+	private Method (String name, int ordinal)
+	{
+		this.name = name;
+		this.ordinal = ordinal;
+		this.bytes = name.getBytes ();
+	}
+	
+	/**
+	 * Gets the number of methods known to the server.
+	 * 
+	 * @return	The number of methods.
+	 */
+	public static int count ()
+	{
+		return VALUES.length;
+	}
+	
+	/**
+	 * Gets a method given its name, which is case-sensitive.
+	 * 
+	 * @param name	The name of the method.
+	 * @return		The method, or null if it is not known to the server.
+	 */
+	public static Method forName (String name)
+	{
+		for (int i = 0; i < VALUES.length; i++)
+			if (VALUES[i].name.equals (name))
+				return VALUES[i];
+		return null;
+	}
+	
+	/**
+	 * Gets a method given its name as a range of bytes, which is case-sensitive.
+	 * 
+	 * @return	The method, or null if it is not known to the server.
+	 */
+	static Method parse (byte[] buf, int start, int end)
+	{
+		int len = end - start;
+		for (int i = 0; i < VALUES.length; i++)
+		{
+			byte[] b = VALUES[i].bytes;
+			if (b.length != len)
+				continue;
+			
+			int j = 0;
+			while (j < len && b[j] == buf[start + j])
+				j++;
+			if (j == len)
+				return VALUES[i];
+		}
+		return null;
+	}
+	
+	static Method valueOf (int ordinal)
+	{
+		return VALUES[ordinal];
+	}
+	
+	public String toString ()
+	{
+		return name;
+	}
+}
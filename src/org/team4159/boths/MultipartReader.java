@@ -0,0 +1,572 @@
+package org.team4159.boths;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Hashtable;
+import java.util.Vector;
+import javax.microedition.io.Connector;
+import com.sun.squawk.microedition.io.FileConnection;
+
+/**
+ * Reads the parts of a {@code multipart/form-data} request body one at a time,
+ * as they arrive from the client.
+ * 
+ * <p>
+ * The body is scanned for boundaries through a fixed-size buffer, so it is never
+ * held in memory as a whole. Each {@link Part} returned by {@link #nextPart()} can
+ * either be read directly from the client with {@link Part#getInputStream()}, or
+ * stored with {@link Part#store()}: parts up to the memory threshold are kept in
+ * memory, and larger ones are written to a temporary file, which is deleted once
+ * the request has been handled. Parts larger than the maximum part size are
+ * rejected as soon as the limit is passed.
+ * </p>
+ * 
+ * <p>
+ * Obtain an instance with {@link Request#getMultipartReader()}.
+ * </p>
+ */
+public class MultipartReader
+{
+	private static int memoryThreshold = 8192;
+	private static long maximumPartSize = 16 * 1024 * 1024;
+	private static String spillDirectory = "file:///";
+	private static int spillCounter = 0;
+	
+	/**
+	 * Sets the size above which stored parts are written to a temporary file instead of memory.
+	 * Default is 8192 bytes.
+	 * 
+	 * @param sz	Maximum size of a part kept in memory, in bytes.
+	 */
+	public static void setMemoryThreshold (int sz)
+	{
+		memoryThreshold = sz;
+	}
+	
+	/**
+	 * Sets the maximum size of the content of a single part.
+	 * Default is 16 MiB.
+	 * 
+	 * @param sz	Maximum size of a part in bytes.
+	 */
+	public static void setMaximumPartSize (long sz)
+	{
+		maximumPartSize = sz;
+	}
+	
+	/**
+	 * Sets the directory temporary files are created in, as a {@code file://} URL
+	 * ending with {@code "/"}. Default is {@code "file:///"}.
+	 * 
+	 * @param url	The URL of the directory.
+	 */
+	public static void setSpillDirectory (String url)
+	{
+		if (!url.endsWith ("/"))
+			url += "/";
+		spillDirectory = url;
+	}
+	
+	/**
+	 * A part of a {@code multipart/form-data} body.
+	 */
+	public class Part
+	{
+		private final Hashtable headers;
+		private final String name;
+		private final String filename;
+		
+		private long size;
+		private boolean complete;
+		private byte[] data;
+		private String fileURL;
+		
+		Part (Hashtable headers)
+		{
+			this.headers = headers;
+			
+			String disposition = getHeader ("Content-Disposition");
+			this.name = getHeaderParameter (disposition, "name");
+			this.filename = getHeaderParameter (disposition, "filename");
+		}
+		
+		/**
+		 * Gets a header of this part given a case-insensitive key.
+		 * 
+		 * @param key	The name of the header.
+		 * @return		The value, or null if the header does not exist.
+		 */
+		public String getHeader (String key)
+		{
+			return (String) headers.get (key.toLowerCase ());
+		}
+		
+		/**
+		 * Gets the name of the form field of this part.
+		 * 
+		 * @return	The name, or null if none was given.
+		 */
+		public String getName ()
+		{
+			return name;
+		}
+		
+		/**
+		 * Gets the name of the uploaded file, if this part is a file.
+		 * 
+		 * @return	The filename, or null if this part is not a file.
+		 */
+		public String getFilename ()
+		{
+			return filename;
+		}
+		
+		/**
+		 * Gets the MIME type of the content of this part.
+		 * 
+		 * @return	The content type, or {@code "text/plain"} if none was given.
+		 */
+		public String getContentType ()
+		{
+			String contentType = getHeader ("Content-Type");
+			return contentType != null ? contentType : "text/plain";
+		}
+		
+		/**
+		 * Gets a stream over the content of this part. If this part has not been
+		 * stored, the stream reads directly from the client, and can only be used
+		 * until the next call to {@link MultipartReader#nextPart()}.
+		 * 
+		 * @return	An {@link InputStream} over the content.
+		 * @throws IOException
+		 */
+		public InputStream getInputStream () throws IOException
+		{
+			if (data != null)
+				return new ByteArrayInputStream (data);
+			if (fileURL != null)
+				return Connector.openInputStream (fileURL);
+			if (current != this)
+				throw new IOException ("part has been skipped");
+			return contentInputStream;
+		}
+		
+		/**
+		 * Reads the rest of the content of this part and stores it, in memory if it
+		 * is no larger than the memory threshold and in a temporary file otherwise,
+		 * so that it remains available after the next part has been read.
+		 * 
+		 * @return	This part.
+		 * @throws IOException	if the part is too large or could not be stored.
+		 */
+		public Part store () throws IOException
+		{
+			if (complete || data != null || fileURL != null)
+				return this;
+			if (current != this)
+				throw new IOException ("part has been skipped");
+			
+			ByteArrayOutputStream baos = new ByteArrayOutputStream ();
+			OutputStream file = null;
+			byte[] tmp = new byte[512];
+			
+			try {
+				int n;
+				while ((n = contentInputStream.read (tmp, 0, tmp.length)) != -1)
+				{
+					if (file == null && baos.size () + n > memoryThreshold)
+					{
+						file = createSpillFile ();
+						file.write (baos.toByteArray ());
+						baos = null;
+					}
+					
+					if (file != null)
+						file.write (tmp, 0, n);
+					else
+						baos.write (tmp, 0, n);
+				}
+			} finally {
+				if (file != null)
+					file.close ();
+			}
+			
+			if (baos != null)
+				data = baos.toByteArray ();
+			return this;
+		}
+		
+		private OutputStream createSpillFile () throws IOException
+		{
+			int id;
+			synchronized (MultipartReader.class)
+			{
+				id = spillCounter++;
+			}
+			
+			String url = spillDirectory + "boths-upload-" + System.currentTimeMillis () + "-" + id + ".tmp";
+			FileConnection fc = (FileConnection) Connector.open (url, Connector.READ_WRITE);
+			try {
+				if (!fc.exists ())
+					fc.create ();
+				fileURL = url;
+				spilledParts.addElement (this);
+				return fc.openOutputStream ();
+			} finally {
+				fc.close ();
+			}
+		}
+		
+		/**
+		 * Gets the content of this part as a byte array, storing it first if needed.
+		 * 
+		 * @return	The content.
+		 * @throws IOException	if the part is larger than the memory threshold.
+		 */
+		public byte[] getBytes () throws IOException
+		{
+			store ();
+			if (data == null)
+				throw new IOException ("part is too large to be kept in memory; use getInputStream");
+			return data;
+		}
+		
+		/**
+		 * Gets the content of this part decoded as UTF-8, storing it first if needed.
+		 * 
+		 * @return	The content as a string.
+		 * @throws IOException	if the part is larger than the memory threshold.
+		 */
+		public String getString () throws IOException
+		{
+			byte[] bytes = getBytes ();
+			try {
+				return new String (bytes, "UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				return new String (bytes);
+			}
+		}
+		
+		/**
+		 * Gets the number of bytes of content read so far; once the part has been
+		 * stored or read to its end, this is its size.
+		 * 
+		 * @return	The size in bytes.
+		 */
+		public long getSize ()
+		{
+			return size;
+		}
+		
+		/**
+		 * Checks whether the content of this part is stored in memory.
+		 * 
+		 * @return	true if the content is in memory.
+		 */
+		public boolean isInMemory ()
+		{
+			return data != null;
+		}
+		
+		/**
+		 * Gets the URL of the temporary file the content of this part is stored in.
+		 * The file is deleted after the request has been handled; to keep it,
+		 * rename it before then.
+		 * 
+		 * @return	A {@code file://} URL, or null if the content is not in a file.
+		 */
+		public String getFileURL ()
+		{
+			return fileURL;
+		}
+		
+		/**
+		 * Deletes the temporary file of this part, if there is one.
+		 */
+		public void delete ()
+		{
+			if (fileURL == null)
+				return;
+			
+			try {
+				FileConnection fc = (FileConnection) Connector.open (fileURL, Connector.READ_WRITE);
+				try {
+					if (fc.exists ())
+						fc.delete ();
+				} finally {
+					fc.close ();
+				}
+			} catch (IOException e) {
+				e.printStackTrace ();
+			}
+			
+			fileURL = null;
+		}
+	}
+	
+	private class ContentInputStream extends InputStream
+	{
+		private final byte[] single = new byte[1];
+		
+		public int read () throws IOException
+		{
+			return read (single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+		}
+		
+		public int read (byte[] b, int off, int len) throws IOException
+		{
+			if (len == 0)
+				return 0;
+			
+			int n = readContent (b, off, len);
+			if (n < 0)
+			{
+				if (current != null)
+					current.complete = current.data == null && current.fileURL == null;
+				return -1;
+			}
+			
+			current.size += n;
+			if (current.size > maximumPartSize)
+				throw new IOException ("part larger than " + maximumPartSize + " bytes");
+			return n;
+		}
+		
+		public int available ()
+		{
+			return 0;
+		}
+	}
+	
+	private final InputStream is;
+	private final byte[] delimiter;
+	private final byte[] buf;
+	private int start, end;
+	private boolean eof;
+	
+	private final ContentInputStream contentInputStream = new ContentInputStream ();
+	private final Vector spilledParts = new Vector ();
+	private Part current;
+	private boolean atDelimiter;
+	private boolean finished;
+	
+	MultipartReader (InputStream is, String boundary)
+	{
+		this.is = is;
+		
+		// the first delimiter may come without the line break before it
+		this.delimiter = ("\r\n--" + boundary).getBytes ();
+		this.buf = new byte[Math.max (4096, 4 * delimiter.length)];
+		buf[0] = '\r';
+		buf[1] = '\n';
+		end = 2;
+	}
+	
+	/**
+	 * Skips the rest of the current part and returns the next one.
+	 * 
+	 * @return	The next {@link Part}, or null if there are no more parts.
+	 * @throws IOException	if the body is malformed or could not be read.
+	 */
+	public Part nextPart () throws IOException
+	{
+		if (finished)
+			return null;
+		
+		// skip the preamble or the rest of the current part
+		byte[] tmp = new byte[256];
+		while (!atDelimiter)
+			readContent (tmp, 0, tmp.length);
+		current = null;
+		
+		// closing delimiter or line break
+		ensure (2);
+		if (end - start < 2)
+			throw new EOFException ("multipart body ended unexpectedly");
+		if (buf[start] == '-' && buf[start + 1] == '-')
+		{
+			finished = true;
+			return null;
+		}
+		readLine (); // transport padding
+		
+		// part headers
+		Hashtable headers = new Hashtable ();
+		for (;;)
+		{
+			String line = readLine ();
+			if (line.length () == 0)
+				break;
+			
+			int colon = line.indexOf (':');
+			if (colon <= 0)
+				throw new IOException ("separator not found in part header");
+			headers.put (line.substring (0, colon).trim ().toLowerCase (), line.substring (colon + 1).trim ());
+		}
+		
+		atDelimiter = false;
+		return current = new Part (headers);
+	}
+	
+	/**
+	 * Deletes the temporary files of all stored parts.
+	 */
+	void deleteFiles ()
+	{
+		int n = spilledParts.size ();
+		for (int i = 0; i < n; i++)
+			((Part) spilledParts.elementAt (i)).delete ();
+		spilledParts.removeAllElements ();
+	}
+	
+	/**
+	 * Reads content up to the next delimiter, consuming the delimiter once reached.
+	 */
+	private int readContent (byte[] b, int off, int len) throws IOException
+	{
+		for (;;)
+		{
+			if (atDelimiter)
+				return -1;
+			
+			int p = scan ();
+			if (p > start)
+			{
+				int n = Math.min (len, p - start);
+				System.arraycopy (buf, start, b, off, n);
+				start += n;
+				return n;
+			}
+			
+			if (end - start >= delimiter.length)
+			{
+				// full delimiter at the start of the buffer
+				start += delimiter.length;
+				atDelimiter = true;
+				return -1;
+			}
+			
+			if (eof)
+				throw new EOFException ("multipart body ended unexpectedly");
+			fill ();
+		}
+	}
+	
+	/**
+	 * Finds the first position in the buffer where the delimiter, or the part of it
+	 * that fits in the buffer, begins.
+	 */
+	private int scan ()
+	{
+		byte first = delimiter[0];
+		for (int i = start; i < end; i++)
+		{
+			if (buf[i] != first)
+				continue;
+			
+			int n = Math.min (delimiter.length, end - i);
+			int j = 1;
+			while (j < n && buf[i + j] == delimiter[j])
+				j++;
+			if (j == n)
+				return i;
+		}
+		return end;
+	}
+	
+	private String readLine () throws IOException
+	{
+		for (int scanned = start;;)
+		{
+			for (; scanned + 1 < end; scanned++)
+			{
+				if (buf[scanned] == '\r' && buf[scanned + 1] == '\n')
+				{
+					String line = new String (buf, start, scanned - start);
+					start = scanned + 2;
+					return line;
+				}
+			}
+			
+			if (eof)
+				throw new EOFException ("multipart body ended unexpectedly");
+			if (start == 0 && end == buf.length)
+				throw new IOException ("part header line too long");
+			
+			scanned -= start;
+			fill ();
+		}
+	}
+	
+	private void ensure (int n) throws IOException
+	{
+		while (end - start < n && !eof)
+			fill ();
+	}
+	
+	private void fill () throws IOException
+	{
+		if (start > 0)
+		{
+			System.arraycopy (buf, start, buf, 0, end - start);
+			end -= start;
+			start = 0;
+		}
+		
+		int n = is.read (buf, end, buf.length - end);
+		if (n < 0)
+			eof = true;
+		else
+			end += n;
+	}
+	
+	/**
+	 * Gets a parameter of a header value such as {@code form-data; name="field"}.
+	 */
+	static String getHeaderParameter (String disposition, String param)
+	{
+		if (disposition == null)
+			return null;
+		
+		int len = disposition.length ();
+		int i = disposition.indexOf (';');
+		while (i >= 0 && i < len)
+		{
+			i++;
+			while (i < len && disposition.charAt (i) == ' ')
+				i++;
+			
+			int eq = disposition.indexOf ('=', i);
+			if (eq < 0)
+				return null;
+			String key = disposition.substring (i, eq).trim ();
+			
+			String value;
+			int next;
+			if (eq + 1 < len && disposition.charAt (eq + 1) == '"')
+			{
+				int close = disposition.indexOf ('"', eq + 2);
+				if (close < 0)
+					close = len;
+				value = disposition.substring (eq + 2, close);
+				next = disposition.indexOf (';', close);
+			}
+			else
+			{
+				next = disposition.indexOf (';', eq);
+				value = disposition.substring (eq + 1, next < 0 ? len : next).trim ();
+			}
+			
+			if (key.toLowerCase ().equals (param))
+				return value;
+			i = next;
+		}
+		
+		return null;
+	}
+}
@@ -0,0 +1,107 @@
+package org.team4159.boths;
+
+/**
+ * A path containing parameters in braces, such as {@code "/subsystems/{name}/telemetry"},
+ * compiled into the literal parts between its parameters.
+ * 
+ * <p>
+ * A parameter matches one or more characters, up to the next {@code '/'} or the
+ * first character of the literal part following it.
+ * </p>
+ */
+class PathPattern
+{
+	/**
+	 * The literal parts; there is one more than there are parameters, and
+	 * only the first and last may be empty.
+	 */
+	final String[] literals;
+	
+	/**
+	 * The names of the parameters.
+	 */
+	final String[] names;
+	
+	PathPattern (String pattern)
+	{
+		int count = 0;
+		for (int i = pattern.indexOf ('{'); i >= 0; i = pattern.indexOf ('{', i + 1))
+			count++;
+		
+		literals = new String[count + 1];
+		names = new String[count];
+		
+		int pos = 0;
+		for (int i = 0; i < count; i++)
+		{
+			int open = pattern.indexOf ('{', pos);
+			int close = pattern.indexOf ('}', open);
+			if (close < 0)
+				throw new IllegalArgumentException ("unclosed parameter in path pattern: " + pattern);
+			
+			literals[i] = pattern.substring (pos, open);
+			names[i] = pattern.substring (open + 1, close);
+			if (names[i].length () == 0 || names[i].indexOf ('{') >= 0)
+				throw new IllegalArgumentException ("invalid parameter name in path pattern: " + pattern);
+			if (i > 0 && literals[i].length () == 0)
+				throw new IllegalArgumentException ("adjacent parameters in path pattern: " + pattern);
+			
+			pos = close + 1;
+		}
+		
+		literals[count] = pattern.substring (pos);
+		if (literals[count].indexOf ('}') >= 0)
+			throw new IllegalArgumentException ("unopened parameter in path pattern: " + pattern);
+	}
+	
+	/**
+	 * Checks whether a path contains parameters.
+	 */
+	static boolean isPattern (String path)
+	{
+		return path != null && path.indexOf ('{') >= 0;
+	}
+	
+	/**
+	 * Matches a path against this pattern.
+	 * 
+	 * @param path		The path.
+	 * @param exact		Whether the whole path must match, rather than just its beginning.
+	 * @param captures	If not null, receives the start and end offsets in the path
+	 * of each parameter, at 2 * i and 2 * i + 1.
+	 * @return			true if the path matches.
+	 */
+	boolean match (String path, boolean exact, int[] captures)
+	{
+		int len = path.length ();
+		int pos = 0;
+		
+		for (int i = 0;; i++)
+		{
+			String literal = literals[i];
+			if (!path.startsWith (literal, pos))
+				return false;
+			pos += literal.length ();
+			
+			if (i == names.length)
+				break;
+			
+			String next = literals[i + 1];
+			char stop = next.length () > 0 ? next.charAt (0) : '/';
+			
+			int start = pos;
+			while (pos < len && path.charAt (pos) != '/' && path.charAt (pos) != stop)
+				pos++;
+			if (pos == start)
+				return false;
+			
+			if (captures != null)
+			{
+				captures[2 * i] = start;
+				captures[2 * i + 1] = pos;
+			}
+		}
+		
+		return !exact || pos == len;
+	}
+}
@@ -0,0 +1,109 @@
+package org.team4159.boths;
+
+import java.io.InputStream;
+import org.team4159.boths.util.Deflater;
+
+/**
+ * Buffers kept by a worker thread of a {@link Server} and reused for every request
+ * it handles, so that handling a request allocates as little as possible.
+ * 
+ * <p>
+ * Whatever a recycler hands out is reset before it is reused, and belongs to a
+ * request only until the request has been handled: a {@link View} must not use the
+ * {@link Request} of a request, or its {@link Response} if it was marked with
+ * {@link Response#setRecyclable(boolean)}, after
+ * {@link View#postResponse(Request, Response, InputStream, java.io.OutputStream)}
+ * has returned. When debugging is enabled with {@link Server#setDebugRecycling(boolean)},
+ * doing so throws an {@link IllegalStateException} instead of silently seeing the
+ * data of another request. Responses not marked as recyclable are never taken back.
+ * </p>
+ */
+class Recycler
+{
+	private static final int MAXIMUM_RESPONSE_BUFFER_SIZE = 65536;
+	private static final int MAXIMUM_HEAD_BUFFER_SIZE = 16384;
+	
+	static boolean debug = false;
+	
+	private RequestReader reader;
+	private byte[] responseBuffer;
+	private HeadBuffer headBuffer;
+	private Deflater deflater;
+	
+	/**
+	 * Gets the recycler of the current thread.
+	 * 
+	 * @return	The recycler, or null if the current thread is not a worker thread.
+	 */
+	static Recycler current ()
+	{
+		Thread thread = Thread.currentThread ();
+		if (thread instanceof Server.Worker)
+			return ((Server.Worker) thread).recycler;
+		return null;
+	}
+	
+	/**
+	 * Gets a reader for the head of a new request, reusing the previous one
+	 * if its buffer has the right size.
+	 */
+	RequestReader obtainReader (InputStream is, int size)
+	{
+		if (reader == null || reader.buf.length != size)
+			reader = new RequestReader (is, size);
+		else
+			reader.reset (is);
+		return reader;
+	}
+	
+	/**
+	 * Takes the buffer of a previous response, if there is one.
+	 * 
+	 * @return	The buffer, or null.
+	 */
+	byte[] obtainResponseBuffer ()
+	{
+		byte[] buf = responseBuffer;
+		responseBuffer = null;
+		return buf;
+	}
+	
+	/**
+	 * Gets an empty buffer for serializing a response, reusing the previous one
+	 * unless it has grown too large.
+	 */
+	HeadBuffer obtainHeadBuffer ()
+	{
+		if (headBuffer == null || headBuffer.capacity () > MAXIMUM_HEAD_BUFFER_SIZE)
+			headBuffer = new HeadBuffer (Response.HEAD_BUFFER_SIZE);
+		else
+			headBuffer.reset ();
+		return headBuffer;
+	}
+	
+	/**
+	 * Gets the compressor of this thread, creating it when first needed.
+	 */
+	Deflater obtainDeflater ()
+	{
+		if (deflater == null)
+			deflater = new Deflater ();
+		return deflater;
+	}
+	
+	/**
+	 * Takes back the buffer of a response that has been sent, if it is recyclable,
+	 * keeping it for the next response unless it is too large.
+	 */
+	void recycle (Response res)
+	{
+		if (!res.isRecyclable ())
+			return;
+		
+		byte[] buf = res.release ();
+		if (buf.length > MAXIMUM_RESPONSE_BUFFER_SIZE)
+			return;
+		if (responseBuffer == null || buf.length > responseBuffer.length)
+			responseBuffer = buf;
+	}
+}
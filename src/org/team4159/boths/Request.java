@@ -1,24 +1,38 @@
 package org.team4159.boths;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.util.Enumeration;
+import java.io.OutputStream;
 import java.util.Hashtable;
-import java.util.Vector;
-import org.team4159.boths.util.LimitingInputStream;
+import org.team4159.boths.util.BoundedInputStream;
+import org.team4159.boths.util.ChunkedInputStream;
+import org.team4159.boths.util.StringMap;
 import org.team4159.boths.util.StringUtils;
-import com.sun.squawk.io.BufferedReader;
 
 /**
  * The {@link Request} class represents an HTTP request and is passed to
  * {@link Route}s and {@link View}s when handing an HTTP request.
+ * 
+ * <p>
+ * Header values, query string parameters and POST parameters are only decoded
+ * the first time they are accessed, so requests that never use them cost nothing.
+ * </p>
+ * 
+ * <p>
+ * The body is not read until it is asked for, either all at once with
+ * {@link #getRawPostData()}, which replaces the former {@code rawPostData} field,
+ * or as it arrives with {@link #getBodyInputStream()}.
+ * </p>
  */
 public class Request
 {
 	private static int maximumRequestSize = 4096;
 	private static int maximumPostSize = 65536;
+	private static int maximumChunkSize = 65536;
+	private static long maximumChunkedBodySize = 16 * 1024 * 1024;
 	
 	/**
 	 * Sets the maximum size of the HTTP message (request line and headers) of a request.
@@ -42,11 +56,45 @@ public class Request
 		maximumPostSize = sz;
 	}
 	
+	/**
+	 * Gets the maximum size of the POST body of a request.
+	 * 
+	 * @return	Maximum size of the POST body in bytes.
+	 */
+	public static int getMaximumPostSize ()
+	{
+		return maximumPostSize;
+	}
+	
+	/**
+	 * Sets the maximum size of a single chunk of a body sent with
+	 * {@code Transfer-Encoding: chunked}. Default is 65536 bytes.
+	 * 
+	 * @param sz	Maximum size of a chunk in bytes.
+	 */
+	public static void setMaximumChunkSize (int sz)
+	{
+		maximumChunkSize = sz;
+	}
+	
+	/**
+	 * Sets the maximum total size of a body sent with {@code Transfer-Encoding: chunked}
+	 * when it is read as a stream. Default is 16 MiB.
+	 * 
+	 * @param sz	Maximum size of the body in bytes.
+	 */
+	public static void setMaximumChunkedBodySize (long sz)
+	{
+		maximumChunkedBodySize = sz;
+	}
+	
 	/**
 	 * The HTTP method of the request, commonly {@code "GET"} or {@code "POST"}.
 	 */
 	public final String method;
 	
+	private final Method methodType;
+	
 	/**
 	 * The full path of the request, including the query string.
 	 * 
@@ -73,80 +121,44 @@ public class Request
 	 */
 	public final String queryString;
 	
-	/**
-	 * If {@code method == "POST"}, this is the raw POST data of the request as a byte array.
-	 * If {@code method != "POST"}, this will be null.
-	 */
-	public final byte[] rawPostData;
+	private final RequestReader reader;
+	private final int generation;
 	
-	private final Hashtable headers = new Hashtable ();
+	private String[] pathParamNames;
 	
-	private final Hashtable singleParams = new Hashtable ();
-	private final Hashtable multiParams = new Hashtable ();
+	private final int contentLength;
+	private final boolean chunked;
+	private InputStream bodyInputStream;
+	private byte[] postData;
+	private MultipartReader multipartReader;
 	
-	private final Hashtable singlePosts = new Hashtable ();
-	private final Hashtable multiPosts = new Hashtable ();
+	// where to send 100 Continue before the body is read, if the client asked for it
+	private OutputStream continueOutputStream;
+	private boolean continueSent;
+	private boolean responseStarted;
+	
+	// parsed on first access
+	private StringMap params;
+	private StringMap posts;
+	private Hashtable parts;
 	
 	Request (InputStream is) throws RequestException
 	{
-		BufferedReader rr = new BufferedReader (
-			new InputStreamReader (
-				new LimitingInputStream (is, maximumRequestSize)
-			), 1
-		);
+		this (obtainReader (is));
+	}
+	
+	Request (RequestReader reader) throws RequestException
+	{
+		this.reader = reader;
+		this.generation = reader.generation;
 		
 		// parse request line and headers
-		{
-			String firstLine;
-			try {
-				firstLine = rr.readLine ();
-			} catch (IOException e) {
-				e.printStackTrace ();
-				throw new RequestException ("failed to read request line");
-			}
-			
-			if (firstLine == null)
-				throw new RequestException ("EOF at beginning of request");
-			
-			String[] firstLineElements = StringUtils.splitByWholeSeparator (firstLine, " ");
-			if (firstLineElements.length != 3)
-				throw new RequestException ("wrong number of elements in first line of HTTP request");
-			
-			method = firstLineElements[0];
-			fullPath = firstLineElements[1];
-			version = firstLineElements[2];
-			
-			if (method.length () == 0 || fullPath.length () == 0 || version.length () == 0)
-				throw new RequestException ("bad HTTP first line");
-			if (fullPath.charAt (0) != '/')
-				throw new RequestException ("HTTP path does not begin with /");
-			
-			for (;;)
-			{
-				String headerLine;
-				
-				try {
-					headerLine = rr.readLine ();
-				} catch (IOException e) {
-					e.printStackTrace ();
-					throw new RequestException ("failed to read header line");
-				}
-				
-				if (headerLine == null) // premature death
-					throw new RequestException ("headers terminated prematurely");
-				if (headerLine.length () == 0) // end of headers
-					break;
-				
-				int separatorLocation = headerLine.indexOf (": ");
-				if (separatorLocation == -1)
-					throw new RequestException ("separator not found in header entry");
-				
-				String key = headerLine.substring (0, separatorLocation);
-				String value = headerLine.substring (separatorLocation + 2);
-				
-				headers.put (key.toLowerCase (), value);
-			}
-		}
+		reader.readHead ();
+		
+		methodType = Method.parse (reader.buf, 0, reader.methodEnd);
+		method = methodType != null ? methodType.name : reader.string (0, reader.methodEnd);
+		fullPath = reader.string (reader.targetStart, reader.targetEnd);
+		version = reader.string (reader.versionStart, reader.versionEnd);
 		
 		// parse the path
 		{
@@ -166,87 +178,167 @@ public class Request
 				throw new RequestException (". or .. in path");
 		}
 		
-		// parse the query string
-		parseEncodedParams (queryString, singleParams, multiParams);
-		
-		// parse POST data
-		if (method.equals ("POST"))
+		// check the length of the body, which is read later
+		String transferEncoding = getHeader (HeaderNames.TRANSFER_ENCODING);
+		if (transferEncoding != null)
+		{
+			// chunked must be the last coding applied; no others are supported
+			if (!transferEncoding.trim ().toLowerCase ().equals ("chunked"))
+				throw new RequestException ("unsupported Transfer-Encoding");
+			
+			chunked = true;
+			contentLength = -1;
+		}
+		else if (getHeader (HeaderNames.CONTENT_LENGTH) != null || methodType == Method.POST)
 		{
-			int contentLength;
+			chunked = false;
+			
 			try {
-				contentLength = Integer.parseInt (getHeader ("Content-Length"));
+				contentLength = Integer.parseInt (getHeader (HeaderNames.CONTENT_LENGTH));
 			} catch (NumberFormatException e) {
 				throw new RequestException ("invalid Content-Length");
 			}
 			
 			if (contentLength < 0)
 				throw new RequestException ("negative Content-Length");
-			if (contentLength > maximumPostSize)
-				throw new RequestException ("Content-Length too large (" + contentLength +" > " + maximumPostSize + ")");
-			
-			rawPostData = new byte[contentLength];
-			try {
-				new DataInputStream (is).readFully (rawPostData);
-			} catch (IOException e) {
-				e.printStackTrace ();
-				throw new RequestException ("failed to read POST data");
-			}
-			
-			if (getHeader ("Content-Type").equals ("application/x-www-form-urlencoded"))
-				parseEncodedParams (new String (rawPostData), singlePosts, multiPosts);
-			// TODO: process multipart/form-data
 		}
 		else
 		{
-			rawPostData = null;
+			chunked = false;
+			contentLength = -1;
 		}
 	}
 	
-	private static void parseEncodedParams (String str, Hashtable single, Hashtable multi)
+	private static RequestReader obtainReader (InputStream is)
 	{
-		String[] fragments = StringUtils.splitByWholeSeparator (str, "&");
-		for (int i = 0; i < fragments.length; i++)
+		Recycler recycler = Recycler.current ();
+		if (recycler != null)
+			return recycler.obtainReader (is, maximumRequestSize);
+		return new RequestReader (is, maximumRequestSize);
+	}
+	
+	private void checkRecycled ()
+	{
+		if (Recycler.debug && reader.generation != generation)
+			throw new IllegalStateException ("request used after it has been handled");
+	}
+	
+	private void parseParams ()
+	{
+		checkRecycled ();
+		if (params != null)
+			return;
+		
+		params = reader.params;
+		
+		// decode the query string from the bytes of the head rather than from its characters
+		int qsep = fullPath.indexOf ('?');
+		if (qsep >= 0)
+			parseEncodedParams (reader.buf, reader.targetStart + qsep + 1, reader.targetEnd, params);
+	}
+	
+	private void parsePosts ()
+	{
+		checkRecycled ();
+		if (posts != null)
+			return;
+		
+		posts = reader.posts;
+		parts = new Hashtable ();
+		
+		if (hasBody () && isContentType ("application/x-www-form-urlencoded"))
 		{
-			String fragment = fragments[i];
-			if (fragment.length () == 0)
-				continue;
-			
-			int eq = fragment.indexOf ('=');
-			String key, value;
-			
-			if (eq != -1)
-			{
-				key = fragment.substring (0, eq);
-				value = fragment.substring (eq + 1);
-			}
-			else
+			byte[] data = getRawPostData ();
+			parseEncodedParams (data, 0, data.length, posts);
+		}
+		else if (hasBody () && isContentType ("multipart/form-data"))
+			parseMultipartPosts ();
+	}
+	
+	private void parseMultipartPosts ()
+	{
+		try {
+			MultipartReader mr = getMultipartReader ();
+			MultipartReader.Part part;
+			while ((part = mr.nextPart ()) != null)
 			{
-				key = fragment;
-				value = "";
+				part.store ();
+				
+				String name = part.getName ();
+				if (name == null)
+					continue;
+				parts.put (name, part);
+				
+				if (part.getFilename () == null)
+					posts.add (name, readField (part));
 			}
-			
-			key = StringUtils.urlUnquote (key);
-			value = StringUtils.urlUnquote (value);
-			
-			single.put (key, value);
-			
-			Vector vec = (Vector) multi.get (key);
-			if (vec == null)
-				multi.put (key, vec = new Vector ());
-			vec.addElement (value);
+		} catch (IOException e) {
+			e.printStackTrace ();
+			throw new IllegalStateException ("failed to read multipart POST data: " + e);
 		}
+	}
+	
+	/**
+	 * Reads the value of a form field of a multipart body. One larger than the memory
+	 * threshold of {@link MultipartReader} has been stored in a file, and is read back
+	 * from there, up to the maximum POST size.
+	 */
+	private static String readField (MultipartReader.Part part) throws IOException
+	{
+		if (part.isInMemory ())
+			return part.getString ();
 		
-		Enumeration keys = multi.keys ();
-		while (keys.hasMoreElements ())
+		long size = part.getSize ();
+		if (size > maximumPostSize)
+			throw new IllegalStateException ("form field " + part.getName () + " too large (" + size + " > " + maximumPostSize + ")");
+		
+		byte[] data = new byte[(int) size];
+		InputStream is = part.getInputStream ();
+		try {
+			new DataInputStream (is).readFully (data);
+		} finally {
+			is.close ();
+		}
+		return StringUtils.decodeUTF8 (data, 0, data.length);
+	}
+	
+	boolean hasBody ()
+	{
+		return chunked || contentLength > 0;
+	}
+	
+	private boolean isContentType (String mimeType)
+	{
+		String contentType = getHeader (HeaderNames.CONTENT_TYPE);
+		if (contentType == null)
+			return false;
+		
+		int sep = contentType.indexOf (';');
+		if (sep >= 0)
+			contentType = contentType.substring (0, sep);
+		return contentType.trim ().toLowerCase ().equals (mimeType);
+	}
+	
+	private static void parseEncodedParams (byte[] buf, int start, int end, StringMap map)
+	{
+		while (start < end)
 		{
-			Object key = keys.nextElement ();
-			Vector vec = (Vector) multi.get (key);
-			int len = vec.size ();
-			String[] arr = new String[len];
-			multi.put (key, arr);
+			int amp = start;
+			while (amp < end && buf[amp] != '&')
+				amp++;
 			
-			for (int i = 0; i < len; i++)
-				arr[i] = (String) vec.elementAt (i);
+			if (amp > start)
+			{
+				int eq = start;
+				while (eq < amp && buf[eq] != '=')
+					eq++;
+				
+				String key = StringUtils.urlUnquote (buf, start, eq - start);
+				String value = eq < amp ? StringUtils.urlUnquote (buf, eq + 1, amp - eq - 1) : "";
+				map.add (key, value);
+			}
+			
+			start = amp + 1;
 		}
 	}
 	
@@ -258,7 +350,343 @@ public class Request
 	 */
 	public String getHeader (String key)
 	{
-		return (String) headers.get (key.toLowerCase ());
+		checkRecycled ();
+		int i = reader.findHeader (key);
+		if (i < 0)
+			return null;
+		
+		String value = reader.headerValues[i];
+		if (value == null)
+			value = reader.headerValues[i] = reader.string (reader.headerOffsets[4 * i + 2], reader.headerOffsets[4 * i + 3]);
+		return value;
+	}
+	
+	/**
+	 * Gets the body of the request, such as POST data, as a byte array.
+	 * The body is read from the client and buffered in memory the first time
+	 * this method (or any of the {@code getPost} methods) is called.
+	 * 
+	 * @return	The body, or null if the request has none.
+	 * @throws IllegalStateException	if the body is larger than the maximum POST size,
+	 * if it has already been read through {@link #getBodyInputStream()}, or if the client
+	 * is waiting for {@code 100 Continue} and the response has already been sent.
+	 */
+	public byte[] getRawPostData ()
+	{
+		checkRecycled ();
+		if (postData != null || (!chunked && contentLength < 0))
+			return postData;
+		
+		if (bodyInputStream != null)
+			throw new IllegalStateException ("body has already been read as a stream");
+		if (contentLength > maximumPostSize)
+			throw new IllegalStateException ("Content-Length too large (" + contentLength +" > " + maximumPostSize + ")");
+		
+		byte[] data;
+		try {
+			if (chunked)
+			{
+				sendContinue ();
+				bodyInputStream = new ChunkedInputStream (reader, maximumChunkSize, maximumPostSize);
+				
+				ByteArrayOutputStream baos = new ByteArrayOutputStream ();
+				byte[] buf = new byte[512];
+				int n;
+				while ((n = bodyInputStream.read (buf, 0, buf.length)) != -1)
+					baos.write (buf, 0, n);
+				data = baos.toByteArray ();
+			}
+			else
+			{
+				data = new byte[contentLength];
+				new DataInputStream (getBodyInputStream ()).readFully (data);
+			}
+		} catch (IOException e) {
+			e.printStackTrace ();
+			throw new IllegalStateException ("failed to read POST data: " + e);
+		}
+		
+		return postData = data;
+	}
+	
+	/**
+	 * Gets a stream over the body of the request that reads from the client
+	 * as it is consumed, so that bodies of any size can be processed without
+	 * buffering them. The maximum POST size does not apply.
+	 * 
+	 * <p>
+	 * Once the body has been read through the stream, it can no longer be retrieved
+	 * with {@link #getRawPostData()} or the {@code getPost} methods. If it has
+	 * already been buffered by one of them, the returned stream reads from the buffer.
+	 * </p>
+	 * 
+	 * @return	An {@link InputStream} over the body, which is empty if the request has none.
+	 * @throws IllegalStateException	if the client is waiting for {@code 100 Continue}
+	 * and the response has already been sent, so the body will never come.
+	 */
+	public InputStream getBodyInputStream ()
+	{
+		checkRecycled ();
+		if (postData != null)
+			return new ByteArrayInputStream (postData);
+		if (bodyInputStream == null)
+		{
+			sendContinue ();
+			if (chunked)
+				bodyInputStream = new ChunkedInputStream (reader, maximumChunkSize, maximumChunkedBodySize);
+			else
+				bodyInputStream = new BoundedInputStream (reader, Math.max (contentLength, 0));
+		}
+		return bodyInputStream;
+	}
+	
+	/**
+	 * Gets a {@link MultipartReader} over the body of a {@code multipart/form-data}
+	 * request, for processing uploads part by part as they are received. Temporary
+	 * files created for the parts are deleted once the request has been handled.
+	 * 
+	 * <p>
+	 * Like {@link #getBodyInputStream()}, this consumes the body: afterwards, the
+	 * {@code getPost} methods and {@link #getPart(String)} only see parts read by them
+	 * before this method was first called.
+	 * </p>
+	 * 
+	 * @return	The reader, which is the same on every call.
+	 * @throws IllegalStateException	if the request is not {@code multipart/form-data}
+	 * or has no boundary.
+	 */
+	public MultipartReader getMultipartReader ()
+	{
+		if (multipartReader != null)
+			return multipartReader;
+		
+		if (!isContentType ("multipart/form-data"))
+			throw new IllegalStateException ("request is not multipart/form-data");
+		
+		String boundary = MultipartReader.getHeaderParameter (getHeader (HeaderNames.CONTENT_TYPE), "boundary");
+		if (boundary == null || boundary.length () == 0 || boundary.length () > 70)
+			throw new IllegalStateException ("invalid multipart boundary");
+		
+		return multipartReader = new MultipartReader (getBodyInputStream (), boundary);
+	}
+	
+	/**
+	 * Gets a part of a {@code multipart/form-data} POST body, such as an uploaded file.
+	 * All parts are read and stored the first time this method (or any of the
+	 * {@code getPost} methods) is called; use {@link #getMultipartReader()} instead
+	 * to process them as they are received.
+	 * 
+	 * @param key	The name of the form field.
+	 * @return		The last part with that name, or null if there is none.
+	 */
+	public MultipartReader.Part getPart (String key)
+	{
+		parsePosts ();
+		return (MultipartReader.Part) parts.get (key);
+	}
+	
+	/**
+	 * Gets the length of the body as declared by the client.
+	 * 
+	 * @return	The length in bytes, or -1 if the request has no body or its body is chunked.
+	 */
+	public int getContentLength ()
+	{
+		return contentLength;
+	}
+	
+	/**
+	 * Checks whether the body is sent with {@code Transfer-Encoding: chunked},
+	 * in which case its length is not known in advance.
+	 * 
+	 * @return	true if the body is chunked.
+	 */
+	public boolean isChunked ()
+	{
+		return chunked;
+	}
+	
+	/**
+	 * Gets a trailer field sent after a chunked body given a case-insensitive key.
+	 * Trailers are only available once the whole body has been read.
+	 * 
+	 * @param key	The name of the trailer field.
+	 * @return		The value, or null if the field does not exist or the body has not been read.
+	 */
+	public String getTrailer (String key)
+	{
+		checkRecycled ();
+		if (!(bodyInputStream instanceof ChunkedInputStream))
+			return null;
+		return ((ChunkedInputStream) bodyInputStream).getTrailer (key);
+	}
+	
+	/**
+	 * Checks whether the client sent {@code Expect: 100-continue} and is waiting
+	 * for permission before sending the body.
+	 */
+	boolean expectsContinue ()
+	{
+		String expect = getHeader (HeaderNames.EXPECT);
+		return expect != null && expect.toLowerCase ().equals ("100-continue") && !version.equals ("HTTP/1.0");
+	}
+	
+	/**
+	 * Arranges for {@code 100 Continue} to be sent to the given stream right before
+	 * the body is first read, if the client is waiting for it.
+	 */
+	void setContinueOutputStream (OutputStream os)
+	{
+		if (expectsContinue ())
+			continueOutputStream = os;
+	}
+	
+	/**
+	 * Withdraws the stream given to {@link #setContinueOutputStream(OutputStream)}
+	 * once the response has started to be sent, so that {@code 100 Continue}
+	 * cannot end up in the middle of it.
+	 */
+	void startResponse ()
+	{
+		continueOutputStream = null;
+		responseStarted = true;
+	}
+	
+	private void sendContinue ()
+	{
+		if (continueSent)
+			return;
+		
+		// the client is still waiting to be told to send the body, and it is too late to tell it
+		if (responseStarted && expectsContinue ())
+			throw new IllegalStateException ("body cannot be read after the response has been sent, as the client is waiting for 100 Continue");
+		
+		if (continueOutputStream == null)
+			return;
+		continueSent = true;
+		
+		try {
+			continueOutputStream.write ("HTTP/1.1 100 Continue\r\n\r\n".getBytes ());
+			continueOutputStream.flush ();
+		} catch (IOException e) {
+			e.printStackTrace ();
+		}
+	}
+	
+	/**
+	 * Reads and discards whatever part of the body has not been read, up to the
+	 * maximum POST size, so that the connection can be closed cleanly.
+	 */
+	void discardBody () throws IOException
+	{
+		if (postData != null || !hasBody ())
+			return;
+		
+		// the client has not been told to send the body
+		if (expectsContinue () && !continueSent)
+			return;
+		
+		InputStream is = getBodyInputStream ();
+		if (!chunked && ((BoundedInputStream) is).remaining () > maximumPostSize)
+			return;
+		
+		byte[] buf = new byte[512];
+		int discarded = 0;
+		int n;
+		while (discarded <= maximumPostSize && (n = is.read (buf, 0, buf.length)) != -1)
+			discarded += n;
+	}
+	
+	/**
+	 * Deletes the temporary files created for the parts of a multipart body.
+	 */
+	void deleteFiles ()
+	{
+		if (multipartReader != null)
+			multipartReader.deleteFiles ();
+	}
+	
+	/**
+	 * Marks this request as handled, so that the buffers it uses can be reused.
+	 */
+	void release ()
+	{
+		reader.release ();
+	}
+	
+	/**
+	 * Gets the stream from which the rest of the connection should be read,
+	 * beginning right after the head (or body, once it has been read) of this request.
+	 */
+	InputStream getInputStream ()
+	{
+		return reader;
+	}
+	
+	/**
+	 * Gets the HTTP method of the request.
+	 * 
+	 * @return	The method, or null if it is not one known to the server; see {@link #method}.
+	 */
+	public Method getMethod ()
+	{
+		return methodType;
+	}
+	
+	/**
+	 * Records the names of the parameters of the route matching this request.
+	 * 
+	 * @return	An array to receive the start and end offsets in the path of each parameter.
+	 */
+	int[] setPathParams (String[] names)
+	{
+		pathParamNames = names;
+		if (reader.pathParamOffsets.length < 2 * names.length)
+			reader.pathParamOffsets = new int[2 * names.length];
+		return reader.pathParamOffsets;
+	}
+	
+	/**
+	 * Gets the number of parameters in the path of the {@link Route} that matched this request.
+	 * 
+	 * @return	The number of parameters, 0 if the route has none.
+	 */
+	public int getPathParamCount ()
+	{
+		return pathParamNames == null ? 0 : pathParamNames.length;
+	}
+	
+	/**
+	 * Gets the value of a parameter in the path of the {@link Route} that matched this request.
+	 * 
+	 * {@code "/subsystems/{name}/telemetry", "/subsystems/arm/telemetry" => "arm"}
+	 * 
+	 * @param i		The position of the parameter in the path, starting from 0.
+	 * @return		The URL-decoded value of the parameter.
+	 */
+	public String getPathParam (int i)
+	{
+		checkRecycled ();
+		if (i < 0 || i >= getPathParamCount ())
+			throw new IndexOutOfBoundsException ("no path parameter " + i);
+		
+		int[] offsets = reader.pathParamOffsets;
+		return StringUtils.urlUnquote (reader.buf, reader.targetStart + offsets[2 * i], offsets[2 * i + 1] - offsets[2 * i]);
+	}
+	
+	/**
+	 * Gets the value of a named parameter in the path of the {@link Route} that matched this request.
+	 * 
+	 * @param name	The name of the parameter, without braces.
+	 * @return		The URL-decoded value of the parameter, or null if the route has no such parameter.
+	 */
+	public String getPathParam (String name)
+	{
+		int n = getPathParamCount ();
+		for (int i = n - 1; i >= 0; i--)
+			if (pathParamNames[i].equals (name))
+				return getPathParam (i);
+		return null;
 	}
 	
 	/**
@@ -269,7 +697,8 @@ public class Request
 	 */
 	public String getParam (String key)
 	{
-		return (String) singleParams.get (key);
+		parseParams ();
+		return params.get (key);
 	}
 	
 	/**
@@ -281,7 +710,8 @@ public class Request
 	 */
 	public String[] getParamMulti (String key)
 	{
-		return (String[]) multiParams.get (key);
+		parseParams ();
+		return params.getAll (key);
 	}
 	
 	/**
@@ -289,10 +719,13 @@ public class Request
 	 *  
 	 * @param key	The URL-decoded key of the parameter. 
 	 * @return		The URL-decoded value of the parameter, or null if the value does not exist.
+	 * @throws IllegalStateException	if the body, or a form field of a multipart body,
+	 * is larger than the maximum POST size.
 	 */
 	public String getPost (String key)
 	{
-		return (String) singlePosts.get (key);
+		parsePosts ();
+		return posts.get (key);
 	}
 	
 	/**
@@ -301,9 +734,12 @@ public class Request
 	 * 
 	 * @param key	The URL-decoded key of the parameter. 
 	 * @return		The URL-decoded value of the parameter, or null if the value does not exist.
+	 * @throws IllegalStateException	if the body, or a form field of a multipart body,
+	 * is larger than the maximum POST size.
 	 */
 	public String[] getPostMulti (String key)
 	{
-		return (String[]) multiPosts.get (key);
+		parsePosts ();
+		return posts.getAll (key);
 	}
 }
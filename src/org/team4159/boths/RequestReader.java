@@ -0,0 +1,334 @@
+package org.team4159.boths;
+
+import java.io.IOException;
+import java.io.InputStream;
+import org.team4159.boths.util.StringMap;
+
+/**
+ * Reads the head (request line and headers) of an HTTP request in bulk into a
+ * byte buffer and records where each element is, without creating any strings.
+ *
+ * <p>
+ * Any bytes read past the end of the head (the beginning of the body, or
+ * WebSocket frames sent right after a handshake) are kept, and are returned first
+ * when reading from this stream, followed by the rest of the underlying stream.
+ * </p>
+ *
+ * <p>
+ * A reader can be reused for another request with {@link #reset(InputStream)},
+ * along with the storage for header values and parameters it holds.
+ * </p>
+ */
+class RequestReader extends InputStream
+{
+	private InputStream is;
+
+	byte[] buf;
+	private int pos, limit;
+
+	/**
+	 * Offsets of the request line elements: method [0, methodEnd),
+	 * target [targetStart, targetEnd), version [versionStart, versionEnd).
+	 */
+	int methodEnd, targetStart, targetEnd, versionStart, versionEnd;
+
+	/**
+	 * Offsets of the headers: name start, name end, value start and value end
+	 * of header i are at 4 * i, 4 * i + 1, 4 * i + 2 and 4 * i + 3.
+	 */
+	int[] headerOffsets = new int[4 * 16];
+	int headerCount;
+
+	/**
+	 * IDs in {@link HeaderNames} of the header names, or -1 for unknown names.
+	 */
+	int[] headerIds = new int[16];
+
+	/**
+	 * Decoded values of the headers, filled in as they are accessed.
+	 */
+	String[] headerValues = new String[16];
+
+	/**
+	 * Offsets in the path of the path parameters, filled in by the router.
+	 */
+	int[] pathParamOffsets = new int[8];
+
+	final StringMap params = new StringMap ();
+	final StringMap posts = new StringMap ();
+
+	/**
+	 * Incremented each time the request being read has been handled.
+	 */
+	int generation;
+
+	RequestReader (InputStream is, int size)
+	{
+		this.is = is;
+		this.buf = new byte[size];
+	}
+
+	/**
+	 * Prepares this reader for a new request read from another stream.
+	 */
+	void reset (InputStream is)
+	{
+		this.is = is;
+		pos = limit = 0;
+
+		for (int i = 0; i < headerCount; i++)
+			headerValues[i] = null;
+		headerCount = 0;
+
+		params.clear ();
+		posts.clear ();
+	}
+
+	/**
+	 * Marks the request read by this reader as handled.
+	 */
+	void release ()
+	{
+		generation++;
+		is = null;
+	}
+
+	/**
+	 * Reads the head of the request, up to and including the blank line
+	 * after the headers, and records the offsets of its elements.
+	 */
+	void readHead () throws RequestException
+	{
+		int end = fillHead ();
+
+		// request line
+		int lineEnd = lineEnd (0, end);
+		if (lineEnd == 0)
+			throw new RequestException ("EOF at beginning of request");
+
+		int sp1 = indexOf (' ', 0, lineEnd);
+		int sp2 = sp1 < 0 ? -1 : indexOf (' ', sp1 + 1, lineEnd);
+		if (sp2 < 0 || indexOf (' ', sp2 + 1, lineEnd) >= 0)
+			throw new RequestException ("wrong number of elements in first line of HTTP request");
+
+		methodEnd = sp1;
+		targetStart = sp1 + 1;
+		targetEnd = sp2;
+		versionStart = sp2 + 1;
+		versionEnd = lineEnd;
+
+		if (methodEnd == 0 || targetEnd == targetStart || versionEnd == versionStart)
+			throw new RequestException ("bad HTTP first line");
+		if (buf[targetStart] != '/')
+			throw new RequestException ("HTTP path does not begin with /");
+
+		// headers
+		headerCount = 0;
+		int lineStart = nextLine (lineEnd);
+
+		for (;;)
+		{
+			lineEnd = lineEnd (lineStart, end);
+			if (lineEnd == lineStart) // end of headers
+				break;
+
+			int colon = indexOf (':', lineStart, lineEnd);
+			if (colon <= lineStart)
+				throw new RequestException ("separator not found in header entry");
+
+			int valueStart = colon + 1;
+			while (valueStart < lineEnd && isWhitespace (buf[valueStart]))
+				valueStart++;
+			int valueEnd = lineEnd;
+			while (valueEnd > valueStart && isWhitespace (buf[valueEnd - 1]))
+				valueEnd--;
+
+			if (4 * headerCount == headerOffsets.length)
+			{
+				int[] newOffsets = new int[headerOffsets.length * 2];
+				System.arraycopy (headerOffsets, 0, newOffsets, 0, headerOffsets.length);
+				headerOffsets = newOffsets;
+				headerValues = new String[headerCount * 2];
+
+				int[] newIds = new int[headerCount * 2];
+				System.arraycopy (headerIds, 0, newIds, 0, headerCount);
+				headerIds = newIds;
+			}
+
+			headerIds[headerCount] = HeaderNames.lookup (buf, lineStart, colon);
+
+			int k = 4 * headerCount++;
+			headerOffsets[k] = lineStart;
+			headerOffsets[k + 1] = colon;
+			headerOffsets[k + 2] = valueStart;
+			headerOffsets[k + 3] = valueEnd;
+
+			lineStart = nextLine (lineEnd);
+		}
+
+		pos = end;
+	}
+
+	/**
+	 * Reads from the underlying stream until the buffer contains a blank line.
+	 *
+	 * @return	The offset just past the blank line.
+	 */
+	private int fillHead () throws RequestException
+	{
+		pos = limit = 0;
+		int scan = 0;
+
+		for (;;)
+		{
+			// look for LF (CR) LF in the bytes read so far
+			for (; scan < limit; scan++)
+			{
+				if (buf[scan] != '\n')
+					continue;
+
+				int next = scan + 1;
+				if (next < limit && buf[next] == '\r')
+					next++;
+				if (next < limit && buf[next] == '\n')
+					return next + 1;
+				if (next >= limit)
+					break;
+			}
+
+			if (limit == buf.length)
+				throw new RequestException ("request head larger than " + buf.length + " bytes");
+
+			int n;
+			try {
+				n = is.read (buf, limit, buf.length - limit);
+			} catch (IOException e) {
+				e.printStackTrace ();
+				throw new RequestException ("failed to read request head");
+			}
+
+			if (n < 0)
+			{
+				if (limit == 0)
+					throw new RequestException ("EOF at beginning of request");
+				throw new RequestException ("headers terminated prematurely");
+			}
+
+			limit += n;
+		}
+	}
+
+	/**
+	 * Returns the end of the line starting at {@code start}, excluding the line terminator.
+	 */
+	private int lineEnd (int start, int end)
+	{
+		int lf = indexOf ('\n', start, end);
+		if (lf > start && buf[lf - 1] == '\r')
+			return lf - 1;
+		return lf;
+	}
+
+	private int nextLine (int lineEnd)
+	{
+		return buf[lineEnd] == '\r' ? lineEnd + 2 : lineEnd + 1;
+	}
+
+	private int indexOf (int b, int start, int end)
+	{
+		for (int i = start; i < end; i++)
+			if (buf[i] == b)
+				return i;
+		return -1;
+	}
+
+	private static boolean isWhitespace (byte b)
+	{
+		return b == ' ' || b == '\t';
+	}
+
+	/**
+	 * Creates a string from a range of the buffer, one character per byte.
+	 */
+	String string (int start, int end)
+	{
+		char[] chars = new char[end - start];
+		for (int i = start; i < end; i++)
+			chars[i - start] = (char) (buf[i] & 0xff);
+		return new String (chars);
+	}
+
+	/**
+	 * Finds the last header with the given name, ignoring case.
+	 *
+	 * @return	The index of the header, or -1 if it does not exist.
+	 */
+	int findHeader (String name)
+	{
+		int id = HeaderNames.lookup (name);
+		if (id >= 0)
+		{
+			for (int i = headerCount - 1; i >= 0; i--)
+				if (headerIds[i] == id)
+					return i;
+			return -1;
+		}
+
+		int len = name.length ();
+
+		for (int i = headerCount - 1; i >= 0; i--)
+		{
+			int start = headerOffsets[4 * i];
+			if (headerOffsets[4 * i + 1] - start != len)
+				continue;
+
+			int j = 0;
+			for (; j < len; j++)
+			{
+				int a = buf[start + j] & 0xff;
+				int b = name.charAt (j);
+				if (a != b && toLowerCase (a) != toLowerCase (b))
+					break;
+			}
+
+			if (j == len)
+				return i;
+		}
+
+		return -1;
+	}
+
+	private static int toLowerCase (int c)
+	{
+		return (c >= 'A' && c <= 'Z') ? c + ('a' - 'A') : c;
+	}
+
+	public int read () throws IOException
+	{
+		if (pos < limit)
+			return buf[pos++] & 0xff;
+		return is.read ();
+	}
+
+	public int read (byte[] b, int off, int len) throws IOException
+	{
+		if (pos < limit)
+		{
+			int n = Math.min (len, limit - pos);
+			System.arraycopy (buf, pos, b, off, n);
+			pos += n;
+			return n;
+		}
+		return is.read (b, off, len);
+	}
+
+	public int available () throws IOException
+	{
+		return (limit - pos) + is.available ();
+	}
+
+	public void close () throws IOException
+	{
+		is.close ();
+	}
+}
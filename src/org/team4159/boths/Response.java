@@ -3,12 +3,11 @@ package org.team4159.boths;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.io.OutputStreamWriter;
 import java.io.Writer;
-import java.util.Enumeration;
 import java.util.Hashtable;
 import org.team4159.boths.template.Template;
-import org.team4159.boths.util.FlushingOutputStreamWriter;
+import org.team4159.boths.util.Deflater;
+import org.team4159.boths.util.StringMap;
 
 /**
  * The {@link Response} class is returned by {@link View}s containing the headers and content to be
@@ -16,8 +15,9 @@ import org.team4159.boths.util.FlushingOutputStreamWriter;
  * 
  * <p>
  * Since this class is a subclass of {@link ByteArrayOutputStream}, one may to use this {@link Response}
- * as if it were an {@link OutputStream}. However, streaming is not supported; all writes to an instance
- * to this class will be cached in memory before being sent to the client.
+ * as if it were an {@link OutputStream}. However, all writes to an instance of this class will be
+ * cached in memory before being sent to the client; use a {@link StreamingResponse} to send a body
+ * as it is produced.
  * </p>
  * 
  * @author Team 4159
@@ -26,8 +26,10 @@ public class Response extends ByteArrayOutputStream
 {
 	private static final String DEFAULT_CONTENT_TYPE = "text/html; charset=utf-8";
 	
-	static final Hashtable HTTP_STATUS_MESSAGES = new Hashtable ();
-	private static void addSM (int code, String msg) { HTTP_STATUS_MESSAGES.put (new Integer (code), msg); }
+	// status messages and complete status lines such as "HTTP/1.1 200 OK\r\n", indexed by code - 100
+	private static final String[] STATUS_MESSAGES = new String[500];
+	private static final byte[][] STATUS_LINES = new byte[500][];
+	private static void addSM (int code, String msg) { STATUS_MESSAGES[code - 100] = msg; STATUS_LINES[code - 100] = createStatusLine (code, msg); }
 	static {
 		addSM (100, "Continue");
 		addSM (101, "Switching Protocols");
@@ -62,6 +64,7 @@ public class Response extends ByteArrayOutputStream
 		addSM (414, "Request-URI Too Long");
 		addSM (415, "Unsupported Media Type");
 		addSM (416, "Requested Range Not Satisfiable");
+		addSM (417, "Expectation Failed");
 		addSM (500, "Internal Server Error");
 		addSM (501, "Not Implemented");
 		addSM (502, "Bad Gateway");
@@ -70,15 +73,45 @@ public class Response extends ByteArrayOutputStream
 		addSM (505, "HTTP Version Not Supported");
 	}
 	
-	private final Hashtable headers = new Hashtable ();
-	private final Hashtable headersRealKeys = new Hashtable ();
+	private final StringMap headers = new StringMap (true);
 	
 	private int statusCode = 200;
+	private boolean recyclable;
+	private boolean released;
+	private String cacheKey;
+	
+	private static final int SCRATCH_SIZE = 256;
+	
+	/**
+	 * The initial size of the buffer in which the head of a response is serialized.
+	 */
+	static final int HEAD_BUFFER_SIZE = 2048;
+	
+	// the template of generic error responses, loaded when first needed
+	private static Template errorTemplate;
+	
+	// error responses by code - 100, replaced as a whole whenever one is added
+	private static volatile ErrorPage[] errorPages = new ErrorPage[500];
+	
+	/**
+	 * The largest body copied after the head so that both are sent in one write.
+	 */
+	private static final int MAXIMUM_GATHERED_BODY_SIZE = 8192;
+	
+	private static final byte[] CONTENT_ENCODING_PREFIX = HeaderNames.linePrefix (HeaderNames.lookup (HeaderNames.CONTENT_ENCODING));
+	
+	// high surrogate written last through the writer, waiting for its low surrogate
+	private char pendingSurrogate;
+	
+	// characters of strings being encoded
+	private char[] scratch;
 	
 	/**
 	 * A Writer that allows character-level writing to this Response.
+	 * Characters are encoded in UTF-8 directly into the body of the response,
+	 * so there is no need to flush it.
 	 */
-	public final Writer writer;
+	public final Writer writer = new ResponseWriter ();
 	
 	/**
 	 * Creates an empty response and sets the content type to text/html.
@@ -110,19 +143,43 @@ public class Response extends ByteArrayOutputStream
 	 */
 	public Response (String content, String content_type)
 	{
-		this.writer = new FlushingOutputStreamWriter (this);
+		this (content, content_type, false);
+	}
+	
+	/**
+	 * Creates a response with the specified content and content type, which may be
+	 * recyclable. A recyclable response reuses the buffer of the last recyclable
+	 * response sent by the worker thread, and gives it back once it has been sent;
+	 * see {@link #setRecyclable(boolean)}.
+	 * 
+	 * @param content
+	 *           The HTML to be returned to the client.
+	 * 
+	 * @param content_type
+	 *           The MIME type of the returned content.
+	 * 
+	 * @param recyclable
+	 *           Whether the response is created for a single request and not kept by its view.
+	 */
+	public Response (String content, String content_type, boolean recyclable)
+	{
+		this.recyclable = recyclable;
+		
+		// reuse the buffer of the last response sent by this worker thread
+		Recycler recycler = recyclable ? Recycler.current () : null;
+		if (recycler != null)
+		{
+			byte[] recycled = recycler.obtainResponseBuffer ();
+			if (recycled != null)
+				buf = recycled;
+		}
 		
 		if (content != null)
-			try {
-				writer.write (content);
-				writer.flush ();
-			} catch (IOException e) {
-				e.printStackTrace ();
-			}
+			writeUTF8 (content, 0, content.length ());
 		
 		if (content_type == null)
 			content_type = DEFAULT_CONTENT_TYPE;
-		setHeader ("Content-Type", content_type);
+		setHeader (HeaderNames.CONTENT_TYPE, content_type);
 	}
 	
 	/**
@@ -136,9 +193,30 @@ public class Response extends ByteArrayOutputStream
 	 */
 	public void setHeader (String key, String value)
 	{
-		String low = key.toLowerCase ();
-		headers.put (low, value);
-		headersRealKeys.put (low, key);
+		headers.put (canonicalize (key), value);
+	}
+	
+	/**
+	 * Adds an HTTP header to this response, keeping any existing
+	 * headers with the same key, as is needed for {@code Set-Cookie}.
+	 * 
+	 * @param key
+	 * The key of the HTTP header.
+	 * @param value
+	 * The value of the HTTP header.
+	 */
+	public void addHeader (String key, String value)
+	{
+		headers.add (canonicalize (key), value);
+	}
+	
+	/**
+	 * Replaces the name of a well-known header by its constant in {@link HeaderNames}.
+	 */
+	private static String canonicalize (String key)
+	{
+		int id = HeaderNames.lookup (key);
+		return id >= 0 ? HeaderNames.name (id) : key;
 	}
 	
 	/**
@@ -151,7 +229,7 @@ public class Response extends ByteArrayOutputStream
 	 */
 	public String getHeader (String key)
 	{
-		return (String) headers.get (key.toLowerCase ());
+		return headers.get (key);
 	}
 	
 	/**
@@ -164,9 +242,7 @@ public class Response extends ByteArrayOutputStream
 	 */
 	public void deleteHeader (String key)
 	{
-		String low = key.toLowerCase ();
-		headers.remove (low);
-		headersRealKeys.remove (low);
+		headers.remove (key);
 	}
 	
 	/**
@@ -177,7 +253,7 @@ public class Response extends ByteArrayOutputStream
 	 */
 	public boolean hasHeader (String key)
 	{
-		return headers.containsKey (key.toLowerCase ());
+		return headers.containsKey (key);
 	}
 	
 	/**
@@ -208,6 +284,12 @@ public class Response extends ByteArrayOutputStream
 	/**
 	 * Gets the HTTP status message of this request.
 	 * 
+	 * <p>
+	 * This is the reason phrase sent in the status line. Subclasses may override it
+	 * to send another one; the status line is then built for every response sent,
+	 * instead of being taken ready-made from a table.
+	 * </p>
+	 * 
 	 * @return The HTTP status message of the response.
 	 */
 	public String getStatusMessage ()
@@ -215,6 +297,227 @@ public class Response extends ByteArrayOutputStream
 		return getStatusMessageForStatusCode (statusCode);
 	}
 	
+	/**
+	 * Marks the body of this response as static content, identified by a key such as
+	 * the path of the file it was read from. Its compressed forms are then computed
+	 * once and cached rather than for every response; see {@link Compression}.
+	 * 
+	 * @param key
+	 * A key that identifies the body, or null if it is not static.
+	 */
+	public void setCacheKey (String key)
+	{
+		this.cacheKey = key;
+	}
+	
+	/**
+	 * Gets the key set with {@link #setCacheKey(String)}.
+	 * 
+	 * @return The key, or null if the body is not static.
+	 */
+	public String getCacheKey ()
+	{
+		return cacheKey;
+	}
+	
+	/**
+	 * Compresses the body into the buffer of a {@link Deflater}.
+	 * 
+	 * @return	The length of the compressed body.
+	 */
+	synchronized int deflateBody (Deflater deflater, int format)
+	{
+		return deflater.deflate (buf, 0, count, format);
+	}
+	
+	public synchronized void write (int b)
+	{
+		checkReleased ();
+		super.write (b);
+	}
+	
+	public synchronized void write (byte[] b, int off, int len)
+	{
+		checkReleased ();
+		super.write (b, off, len);
+	}
+	
+	/**
+	 * Encodes characters in UTF-8 at the end of the body.
+	 */
+	private synchronized void writeUTF8 (String str, int off, int len)
+	{
+		// copying characters in bulk beats calling charAt for each of them
+		if (scratch == null)
+			scratch = new char[SCRATCH_SIZE];
+		
+		while (len > 0)
+		{
+			int n = Math.min (len, scratch.length);
+			str.getChars (off, off + n, scratch, 0);
+			writeUTF8 (scratch, 0, n);
+			off += n;
+			len -= n;
+		}
+	}
+	
+	/**
+	 * Encodes characters in UTF-8 at the end of the body.
+	 */
+	private synchronized void writeUTF8 (char[] cbuf, int off, int len)
+	{
+		checkReleased ();
+		ensureCapacity (count + len);
+		
+		int end = off + len;
+		int i = off;
+		if (pendingSurrogate == 0)
+		{
+			byte[] b = buf;
+			int n = count;
+			for (char c; i < end && (c = cbuf[i]) < 0x80; i++)
+				b[n++] = (byte) c;
+			count = n;
+		}
+		
+		for (; i < end; i++)
+			encodeUTF8 (cbuf[i]);
+	}
+	
+	private void encodeUTF8 (char c)
+	{
+		ensureCapacity (count + 4);
+		byte[] b = buf;
+		
+		if (pendingSurrogate != 0)
+		{
+			char high = pendingSurrogate;
+			pendingSurrogate = 0;
+			if (c >= 0xdc00 && c <= 0xdfff)
+			{
+				int cp = 0x10000 + ((high - 0xd800) << 10) + (c - 0xdc00);
+				b[count++] = (byte) (0xf0 | (cp >> 18));
+				b[count++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+				b[count++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+				b[count++] = (byte) (0x80 | (cp & 0x3f));
+				return;
+			}
+			b[count++] = '?';
+		}
+		
+		if (c < 0x80)
+			b[count++] = (byte) c;
+		else if (c < 0x800)
+		{
+			b[count++] = (byte) (0xc0 | (c >> 6));
+			b[count++] = (byte) (0x80 | (c & 0x3f));
+		}
+		else if (c >= 0xd800 && c <= 0xdbff)
+			pendingSurrogate = c;
+		else if (c >= 0xdc00 && c <= 0xdfff)
+			b[count++] = '?';
+		else
+		{
+			b[count++] = (byte) (0xe0 | (c >> 12));
+			b[count++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+			b[count++] = (byte) (0x80 | (c & 0x3f));
+		}
+	}
+	
+	private void ensureCapacity (int capacity)
+	{
+		if (capacity <= buf.length)
+			return;
+		
+		byte[] newbuf = new byte[Math.max (buf.length << 1, capacity)];
+		System.arraycopy (buf, 0, newbuf, 0, count);
+		buf = newbuf;
+	}
+	
+	/**
+	 * The {@link Writer} of a response, encoding straight into its buffer.
+	 */
+	private class ResponseWriter extends Writer
+	{
+		ResponseWriter ()
+		{
+			super (Response.this);
+		}
+		
+		public void write (int c)
+		{
+			synchronized (lock)
+			{
+				checkReleased ();
+				encodeUTF8 ((char) c);
+			}
+		}
+		
+		public void write (char[] cbuf, int off, int len)
+		{
+			writeUTF8 (cbuf, off, len);
+		}
+		
+		public void write (String str)
+		{
+			writeUTF8 (str, 0, str.length ());
+		}
+		
+		public void write (String str, int off, int len)
+		{
+			writeUTF8 (str, off, len);
+		}
+		
+		public void flush ()
+		{
+		}
+		
+		public void close ()
+		{
+		}
+	}
+	
+	private void checkReleased ()
+	{
+		if (released && Recycler.debug)
+			throw new IllegalStateException ("response used after it has been sent");
+	}
+	
+	/**
+	 * Sets whether the buffer of this response may be reused for another response
+	 * once this one has been sent, leaving it empty. Only a response created for a
+	 * single request and not kept by its view may be recyclable. Default is false,
+	 * unless the response was created as recyclable with
+	 * {@link #Response(String, String, boolean)}, which also lets it reuse a buffer.
+	 * 
+	 * @param recyclable
+	 * Whether this response is recyclable.
+	 */
+	public void setRecyclable (boolean recyclable)
+	{
+		this.recyclable = recyclable;
+	}
+	
+	boolean isRecyclable ()
+	{
+		return recyclable;
+	}
+	
+	/**
+	 * Gives up the buffer of this response once it has been sent, so that it can be
+	 * reused. The response is left empty.
+	 * 
+	 * @return	The buffer.
+	 */
+	synchronized byte[] release ()
+	{
+		byte[] ret = buf;
+		buf = new byte[0];
+		count = 0;
+		released = true;
+		return ret;
+	}
+	
 	/**
 	 * Returns a string representation of this response instance.
 	 */
@@ -228,8 +531,8 @@ public class Response extends ByteArrayOutputStream
 	 */
 	public void prepare ()
 	{
-		if (!hasHeader ("Connection"))
-			setHeader ("Connection", "close");
+		if (!hasHeader (HeaderNames.CONNECTION))
+			setHeader (HeaderNames.CONNECTION, "close");
 	}
 	
 	/**
@@ -249,30 +552,126 @@ public class Response extends ByteArrayOutputStream
 	 * Writes the entire HTTP response (including the headers) of this response to
 	 * an {@link OutputStream}.
 	 * 
+	 * <p>
+	 * The head is serialized into a buffer reused by the worker thread, followed by the
+	 * body if it is small enough, so that a typical response takes a single write.
+	 * </p>
+	 * 
 	 * @param os		The {@link OutputStream} to which the response shall be written.
 	 * @param prepare	Whether {@link #prepare()} should be called before writing.
 	 * @throws IOException
 	 */
 	public void writeResponseToOutputStream (OutputStream os, boolean prepare) throws IOException
 	{
+		HeadBuffer head = serializeHead (prepare, null);
+		if (gathersBody () && size () <= MAXIMUM_GATHERED_BODY_SIZE)
+		{
+			writeBodyToOutputStream (head);
+			head.writeContentsTo (os);
+		}
+		else
+		{
+			head.writeContentsTo (os);
+			writeBodyToOutputStream (os);
+		}
+		os.flush ();
+	}
+	
+	/**
+	 * Writes the status line and the headers of this response to an {@link OutputStream},
+	 * as in answer to a HEAD request.
+	 * 
+	 * @param os		The {@link OutputStream} to which the head shall be written.
+	 * @param prepare	Whether {@link #prepare()} should be called before writing.
+	 * @throws IOException
+	 */
+	void writeHeadToOutputStream (OutputStream os, boolean prepare) throws IOException
+	{
+		serializeHead (prepare, null).writeContentsTo (os);
+	}
+	
+	/**
+	 * Writes this response with a compressed form of its body in place of the body,
+	 * without changing the response. {@link #prepare()} is called before writing.
+	 * 
+	 * @param os		The {@link OutputStream} to which the response shall be written.
+	 * @param body		The compressed body.
+	 * @param headOnly	Whether to write only the head, as in answer to a HEAD request.
+	 * @throws IOException
+	 */
+	void writeCompressedResponseToOutputStream (OutputStream os, Compression.Body body, boolean headOnly) throws IOException
+	{
+		HeadBuffer head = serializeHead (true, body.coding);
+		if (headOnly || body.length <= MAXIMUM_GATHERED_BODY_SIZE)
+		{
+			if (!headOnly)
+				head.write (body.data, 0, body.length);
+			head.writeContentsTo (os);
+		}
+		else
+		{
+			head.writeContentsTo (os);
+			os.write (body.data, 0, body.length);
+		}
+		os.flush ();
+	}
+	
+	/**
+	 * Whether the body is in the buffer of this response, so that it can be sent
+	 * along with the head.
+	 */
+	boolean gathersBody ()
+	{
+		return true;
+	}
+	
+	private HeadBuffer serializeHead (boolean prepare, String contentEncoding)
+	{
+		checkReleased ();
 		if (prepare)
 			prepare ();
 		
-		Writer writer = new OutputStreamWriter (os);
-		writer.write ("HTTP/1.1" + " " + getStatusCode () + " " + getStatusMessage () + "\r\n");
+		Recycler recycler = Recycler.current ();
+		HeadBuffer head = recycler != null ? recycler.obtainHeadBuffer () : new HeadBuffer (HEAD_BUFFER_SIZE);
+		
+		// the generic message is the very string in the table unless getStatusMessage () is overridden
+		String msg = getStatusMessage ();
+		byte[] statusLine = msg == getStatusMessageForStatusCode (statusCode) ? getStatusLine (statusCode) : createStatusLine (statusCode, msg);
+		head.write (statusLine, 0, statusLine.length);
 		
-		Enumeration keys = headers.keys ();
-		while (keys.hasMoreElements ())
+		int nheaders = headers.size ();
+		for (int i = 0; i < nheaders; i++)
 		{
-			String key = (String) keys.nextElement ();
-			writer.write (headersRealKeys.get (key) + ": " + headers.get (key) + "\r\n");
+			String key = headers.getKey (i);
+			int id = HeaderNames.lookup (key);
+			if (id >= 0)
+			{
+				byte[] prefix = HeaderNames.linePrefix (id);
+				head.write (prefix, 0, prefix.length);
+			}
+			else
+			{
+				head.writeLatin1 (key);
+				head.write (':');
+				head.write (' ');
+			}
+			
+			head.writeLatin1 (headers.getValue (i));
+			head.write ('\r');
+			head.write ('\n');
 		}
 		
-		writer.write ("\r\n");
-		writer.flush ();
+		if (contentEncoding != null)
+		{
+			head.write (CONTENT_ENCODING_PREFIX, 0, CONTENT_ENCODING_PREFIX.length);
+			head.writeLatin1 (contentEncoding);
+			head.write ('\r');
+			head.write ('\n');
+		}
 		
-		writeBodyToOutputStream (os);
-		os.flush ();
+		head.write ('\r');
+		head.write ('\n');
+		return head;
 	}
 	
 	/**
@@ -281,9 +680,9 @@ public class Response extends ByteArrayOutputStream
 	 * @param os		The {@link OutputStream} to which the body shall be written.
 	 * @throws IOException
 	 */
-	public void writeBodyToOutputStream (OutputStream os) throws IOException
+	public synchronized void writeBodyToOutputStream (OutputStream os) throws IOException
 	{
-		os.write (toByteArray ());
+		os.write (buf, 0, count);
 	}
 	
 	/**
@@ -294,28 +693,181 @@ public class Response extends ByteArrayOutputStream
 	 */
 	public static String getStatusMessageForStatusCode (int code)
 	{
-		String msg = (String) HTTP_STATUS_MESSAGES.get (new Integer (code));
+		String msg = code >= 100 && code < 600 ? STATUS_MESSAGES[code - 100] : null;
 		if (msg == null)
 			return "Unknown Error";
 		else
 			return msg;
 	}
+	
+	/**
+	 * Gets the status line of a response with a given HTTP status code, including
+	 * the line break. The returned array must not be modified.
+	 */
+	static byte[] getStatusLine (int code)
+	{
+		byte[] line = code >= 100 && code < 600 ? STATUS_LINES[code - 100] : null;
+		if (line == null)
+			line = createStatusLine (code, getStatusMessageForStatusCode (code));
+		return line;
+	}
+	
+	private static byte[] createStatusLine (int code, String msg)
+	{
+		String line = "HTTP/1.1 " + code + " " + msg + "\r\n";
+		byte[] b = new byte[line.length ()];
+		for (int i = 0; i < b.length; i++)
+			b[i] = (byte) line.charAt (i);
+		return b;
+	}
 
 	/**
-	 * Creates and returns a generic {@link Response} for errors.
+	 * Creates and returns a generic {@link Response} for errors, or a copy of the
+	 * response set with {@link #setErrorResponse(int, Response)} for the code.
 	 * 
 	 * @param code		The HTTP status code of the error.
 	 * @return			A {@link Response}.
 	 */
 	public static Response createErrorResponse (int code)
 	{
+		return getErrorPage (code).toResponse ();
+	}
+	
+	/**
+	 * Sets the response sent for errors with a given HTTP status code, in place of
+	 * the generic one. The response is prepared and serialized immediately, and its
+	 * status code is set to {@code code}; changing it afterwards has no effect.
+	 * 
+	 * @param code		The HTTP status code of the error, between 100-599 inclusive.
+	 * @param res		The response, which must not be a {@link StreamingResponse},
+	 * or null to restore the generic one.
+	 */
+	public static void setErrorResponse (int code, Response res)
+	{
+		if (code < 100 || code > 599)
+			throw new IllegalArgumentException ("status code must be between 100-599 inclusive");
+		if (res != null && !res.gathersBody ())
+			throw new IllegalArgumentException ("error responses cannot be streamed");
+		
+		ErrorPage page = null;
+		if (res != null)
+		{
+			res.setStatusCode (code);
+			page = new ErrorPage (res);
+		}
+		
+		synchronized (Response.class)
+		{
+			ErrorPage[] pages = new ErrorPage[errorPages.length];
+			System.arraycopy (errorPages, 0, pages, 0, pages.length);
+			pages[code - 100] = page;
+			errorPages = pages;
+		}
+	}
+	
+	/**
+	 * Writes the error response for a given HTTP status code in a single write,
+	 * with no rendering once it has been sent before.
+	 * 
+	 * @param code		The HTTP status code of the error.
+	 * @param os		The {@link OutputStream} to which the response shall be written.
+	 * @param headOnly	Whether to write only the head, as in answer to a HEAD request.
+	 * @throws IOException
+	 */
+	static void writeErrorResponse (int code, OutputStream os, boolean headOnly) throws IOException
+	{
+		ErrorPage page = getErrorPage (code);
+		byte[] serialized = page.serialized;
+		os.write (serialized, 0, headOnly ? serialized.length - page.body.length : serialized.length);
+		os.flush ();
+	}
+	
+	private static ErrorPage getErrorPage (int code)
+	{
+		boolean cached = code >= 100 && code < 600;
+		ErrorPage page = cached ? errorPages[code - 100] : null;
+		if (page != null)
+			return page;
+		
+		page = renderErrorPage (code);
+		if (!cached)
+			return page;
+		
+		synchronized (Response.class)
+		{
+			if (errorPages[code - 100] != null)
+				return errorPages[code - 100];
+			
+			ErrorPage[] pages = new ErrorPage[errorPages.length];
+			System.arraycopy (errorPages, 0, pages, 0, pages.length);
+			pages[code - 100] = page;
+			errorPages = pages;
+		}
+		return page;
+	}
+	
+	private static ErrorPage renderErrorPage (int code)
+	{
+		Template tmpl;
+		synchronized (Response.class)
+		{
+			if (errorTemplate == null)
+				errorTemplate = Template.load (Response.class, "error.html");
+			tmpl = errorTemplate;
+		}
+		
 		Hashtable ht = new Hashtable ();
 		ht.put ("status_code", new Integer (code));
 		ht.put ("status_message", getStatusMessageForStatusCode (code));
 		
-		Response res = Template.load (Response.class, "error.html").renderToResponse (ht);
+		// only the snapshot is kept
+		Response res = tmpl.renderToResponse (ht, true);
 		res.setStatusCode (code);
+		ErrorPage page = new ErrorPage (res);
+		
+		Recycler recycler = Recycler.current ();
+		if (recycler != null)
+			recycler.recycle (res);
 		
-		return res;
+		return page;
+	}
+	
+	/**
+	 * A snapshot of an error response, along with its serialized form.
+	 */
+	private static class ErrorPage
+	{
+		final int statusCode;
+		final StringMap headers = new StringMap (true);
+		final byte[] body;
+		final byte[] serialized;
+		
+		ErrorPage (Response res)
+		{
+			ByteArrayOutputStream os = new ByteArrayOutputStream ();
+			try {
+				res.writeResponseToOutputStream (os, true);
+			} catch (IOException e) {
+				// a ByteArrayOutputStream does not throw
+				e.printStackTrace ();
+			}
+			serialized = os.toByteArray ();
+			
+			statusCode = res.statusCode;
+			body = res.toByteArray ();
+			for (int i = 0; i < res.headers.size (); i++)
+				headers.add (res.headers.getKey (i), res.headers.getValue (i));
+		}
+		
+		Response toResponse ()
+		{
+			Response res = new Response ();
+			res.headers.clear ();
+			for (int i = 0; i < headers.size (); i++)
+				res.headers.add (headers.getKey (i), headers.getValue (i));
+			res.write (body, 0, body.length);
+			res.statusCode = statusCode;
+			return res;
+		}
 	}
-}
\ No newline at end of file
+}
@@ -2,12 +2,30 @@ package org.team4159.boths;
 
 public class Route
 {
+	/**
+	 * The number of idle views kept by a route created with a {@link ViewFactory} or
+	 * a view class unless specified otherwise; the default number of worker threads.
+	 */
+	public static final int DEFAULT_POOL_SIZE = 4;
+	
 	/**
 	 * The prefix to which to match the start of the path to if {@link #exactPathMatch} is false,
 	 * or the full path (excluding the query string) to match if {@link #exactPathMatch} is true.
+	 * 
+	 * <p>
+	 * The path may contain parameters in braces, such as {@code "/subsystems/{name}/telemetry"}.
+	 * A parameter matches one or more characters, up to the next {@code '/'} or the first
+	 * character following the parameter in the path, and its value can be retrieved with
+	 * {@link Request#getPathParam(String)}.
+	 * </p>
 	 */
 	public final String pathPrefix;
 	
+	/**
+	 * The compiled form of {@link #pathPrefix} if it contains parameters, otherwise null.
+	 */
+	final PathPattern pattern;
+	
 	/**
 	 * If true, the entire path (rather than just the beginning of the path) of every request
 	 * will be compared to {@link #pathPrefix}.
@@ -27,32 +45,54 @@ public class Route
 	
 	/**
 	 * The {@link Class} object representing the view to use if the request path matches this route.
-	 * A new instance of this class will be created for each and every request.
+	 * Instances of this class are created as needed and reused for one request at a time.
 	 */
 	protected final Class viewClass;
 	
+	/**
+	 * The factory creating the views to use if the request path matches this route,
+	 * which are reused for one request at a time. Defined as well if {@link #viewClass} is.
+	 */
+	protected final ViewFactory viewFactory;
+	
+	// idle views created by viewFactory
+	private final ViewPool pool;
+	
+	// views set with setView, indexed by Method.ordinal
+	private volatile View[] methodViews;
+	
+	// bodies compressed for this route, and their sizes before and after compression
+	private long compressedResponses;
+	private long uncompressedBytes;
+	private long compressedBytes;
+	
 	/**
 	 * Initializes this route with an exact match for the given path.
+	 * Views must be set for it with {@link #setView(Method, View)}.
 	 * 
 	 * @param path	The path that this {@link Route} will match.
 	 */
-	protected Route (String path)
+	public Route (String path)
 	{
 		this (path, true);
 	}
 	
 	/**
 	 * Initializes this route with an exact or prefix match for the given path.
+	 * Views must be set for it with {@link #setView(Method, View)}.
 	 * 
 	 * @param pathPrefix			The path or prefix that this {@link Route} will match.
 	 * @param exactPathMatch	Whether to match the path exactly or by prefix.
 	 */
-	protected Route (String pathPrefix, boolean exactPathMatch)
+	public Route (String pathPrefix, boolean exactPathMatch)
 	{
 		this.pathPrefix = pathPrefix;
 		this.view = null;
 		this.viewClass = null;
+		this.viewFactory = null;
+		this.pool = null;
 		this.exactPathMatch = exactPathMatch;
+		this.pattern = PathPattern.isPattern (pathPrefix) ? new PathPattern (pathPrefix) : null;
 	}
 	
 	/**
@@ -76,7 +116,7 @@ public class Route
 	 * threads.
 	 * 
 	 * <p>
-	 * If your view class is not thread-safe, consider using {@link #Route(String, Class)} instead.
+	 * If your view class is not thread-safe, consider using {@link #Route(String, ViewFactory)} instead.
 	 * </p>
 	 * 
 	 * @param pathPrefix			The path or prefix that this {@link Route} will match.
@@ -88,13 +128,16 @@ public class Route
 		this.pathPrefix = pathPrefix;
 		this.view = view;
 		this.viewClass = null;
+		this.viewFactory = null;
+		this.pool = null;
 		this.exactPathMatch = exactPathMatch;
+		this.pattern = PathPattern.isPattern (pathPrefix) ? new PathPattern (pathPrefix) : null;
 	}
 	
 	/**
 	 * Initializes this route with an exact match for the given path.
 	 * 
-	 * A new instance of the specified class will be created for each request.
+	 * See {@link #Route(String, Class, boolean)} for caveats.
 	 * 
 	 * @param path			The path that this {@link Route} will match.
 	 * @param viewClass	The class of the view to use when this route matches the path.
@@ -107,7 +150,10 @@ public class Route
 	/**
 	 * Initializes this route with an exact or prefix match for the given path.
 	 * 
-	 * A new instance of the specified class will be created for each request.
+	 * Instances of the specified class are created through reflection when no idle one
+	 * is available, and each is reused for one request at a time, so it must not keep
+	 * state from one request to the next. Up to {@link #DEFAULT_POOL_SIZE} idle instances
+	 * are kept. A {@link ViewFactory} avoids the reflection altogether.
 	 * 
 	 * @param pathPrefix			The path or prefix that this {@link Route} will match.
 	 * @param viewClass			The class of the view to use when this route matches the path.
@@ -121,7 +167,67 @@ public class Route
 		this.pathPrefix = pathPrefix;
 		this.view = null;
 		this.viewClass = viewClass;
+		this.viewFactory = new ClassViewFactory (viewClass);
+		this.pool = new ViewPool (viewFactory, DEFAULT_POOL_SIZE);
 		this.exactPathMatch = exactPathMatch;
+		this.pattern = PathPattern.isPattern (pathPrefix) ? new PathPattern (pathPrefix) : null;
+	}
+	
+	/**
+	 * Initializes this route with an exact match for the given path.
+	 * 
+	 * See {@link #Route(String, ViewFactory, boolean, int)} for caveats.
+	 * 
+	 * @param path			The path that this {@link Route} will match.
+	 * @param viewFactory	The factory of the views to use when this route matches the path.
+	 */
+	public Route (String path, ViewFactory viewFactory)
+	{
+		this (path, viewFactory, true, DEFAULT_POOL_SIZE);
+	}
+	
+	/**
+	 * Initializes this route with an exact or prefix match for the given path.
+	 * 
+	 * See {@link #Route(String, ViewFactory, boolean, int)} for caveats.
+	 * 
+	 * @param pathPrefix			The path or prefix that this {@link Route} will match.
+	 * @param viewFactory			The factory of the views to use when this route matches the path.
+	 * @param exactPathMatch	Whether to match the path exactly or by prefix.
+	 */
+	public Route (String pathPrefix, ViewFactory viewFactory, boolean exactPathMatch)
+	{
+		this (pathPrefix, viewFactory, exactPathMatch, DEFAULT_POOL_SIZE);
+	}
+	
+	/**
+	 * Initializes this route with an exact or prefix match for the given path.
+	 * 
+	 * <p>
+	 * Each view created by the factory handles one request at a time, so views that
+	 * are not thread-safe can be used, but they must not keep state from one request
+	 * to the next. When no idle view is available, a new one is created; once a request
+	 * has been handled, its view is kept for later requests unless {@code poolSize}
+	 * views are already idle.
+	 * </p>
+	 * 
+	 * @param pathPrefix			The path or prefix that this {@link Route} will match.
+	 * @param viewFactory			The factory of the views to use when this route matches the path.
+	 * @param exactPathMatch	Whether to match the path exactly or by prefix.
+	 * @param poolSize				The maximum number of idle views to keep.
+	 */
+	public Route (String pathPrefix, ViewFactory viewFactory, boolean exactPathMatch, int poolSize)
+	{
+		if (viewFactory == null)
+			throw new IllegalArgumentException ("view factory must not be null");
+		
+		this.pathPrefix = pathPrefix;
+		this.view = null;
+		this.viewClass = null;
+		this.viewFactory = viewFactory;
+		this.pool = new ViewPool (viewFactory, poolSize);
+		this.exactPathMatch = exactPathMatch;
+		this.pattern = PathPattern.isPattern (pathPrefix) ? new PathPattern (pathPrefix) : null;
 	}
 	
 	/**
@@ -135,21 +241,133 @@ public class Route
 		if (pathPrefix == null)
 			return false;
 		
+		if (pattern != null)
+			return pattern.match (path, exactPathMatch, null);
 		if (exactPathMatch)
 			return path.equals (pathPrefix);
 		else
 			return path.startsWith (pathPrefix);
 	}
 
+	/**
+	 * Sets the view handling requests with the given method, which takes precedence over
+	 * the view given to the constructor. {@code HEAD} requests are handled by the view for
+	 * {@code GET} unless one is set for {@code HEAD}. If this route has no view of its own,
+	 * requests with other methods are answered with 405 Method Not Allowed before any
+	 * view is called.
+	 * 
+	 * @param method	The method.
+	 * @param view		The view to use for requests with that method, or null to remove it.
+	 * @return			This route.
+	 */
+	public synchronized Route setView (Method method, View view)
+	{
+		View[] views = new View[Method.count ()];
+		if (methodViews != null)
+			System.arraycopy (methodViews, 0, views, 0, views.length);
+		views[method.ordinal] = view;
+		methodViews = views;
+		return this;
+	}
+	
+	/**
+	 * Gets the view set with {@link #setView(Method, View)} for a method, including
+	 * the view for {@code GET} if the method is {@code HEAD} and has no view.
+	 * 
+	 * @return	The view, or null if none was set.
+	 */
+	private View getMethodView (Method method)
+	{
+		View[] views = methodViews;
+		if (views == null || method == null)
+			return null;
+		
+		View v = views[method.ordinal];
+		if (v == null && method == Method.HEAD)
+			v = views[Method.GET.ordinal];
+		return v;
+	}
+	
+	/**
+	 * Checks whether this route handles requests with the given method.
+	 * 
+	 * @param method	The method, or null for a method unknown to the server.
+	 * @return			false if views were set for specific methods only and none of them
+	 * handles this one; true otherwise.
+	 */
+	public boolean allowsMethod (Method method)
+	{
+		if (methodViews == null || view != null || pool != null)
+			return true;
+		return getMethodView (method) != null;
+	}
+	
+	/**
+	 * Gets the methods handled by this route, for the {@code Allow} header.
+	 * 
+	 * @return	A list of methods such as {@code "GET, HEAD, POST"}, or null if
+	 * this route handles every method.
+	 */
+	public String getAllowedMethods ()
+	{
+		if (methodViews == null || view != null || pool != null)
+			return null;
+		
+		StringBuffer sb = new StringBuffer ();
+		int n = Method.count ();
+		for (int i = 0; i < n; i++)
+		{
+			Method method = Method.valueOf (i);
+			if (getMethodView (method) == null)
+				continue;
+			if (sb.length () > 0)
+				sb.append (", ");
+			sb.append (method.name);
+		}
+		return sb.toString ();
+	}
+	
+	/**
+	 * Counts a response of this route compressed by {@link Compression}.
+	 */
+	synchronized void recordCompression (int before, int after)
+	{
+		compressedResponses++;
+		uncompressedBytes += before;
+		compressedBytes += after;
+	}
+	
+	/**
+	 * Gets the number of responses of this route that have been compressed.
+	 * 
+	 * @return	The number of compressed responses.
+	 */
+	public synchronized long getCompressedResponseCount ()
+	{
+		return compressedResponses;
+	}
+	
+	/**
+	 * Gets the number of bytes not sent thanks to the compression of the responses
+	 * of this route.
+	 * 
+	 * @return	The total size of the bodies before compression minus their total size after.
+	 */
+	public synchronized long getBytesSavedByCompression ()
+	{
+		return uncompressedBytes - compressedBytes;
+	}
+	
 	/**
 	 * Retrieves the view for handling the given request.
 	 * 
 	 * <p>The default implementation does the following:</p>
 	 * 
 	 * <ol>
+	 * <li>If a view was set for the method of the request with {@link #setView(Method, View)}, return that.</li>
 	 * <li>If {@link #view} is defined, return that.</li>
-	 * <li>If {@link #viewClass} is defined, create a new instance of that and return it.</li>
-	 * <li>If neither {@link #view} nor {@link #viewClass} are defined, return null.</li>
+	 * <li>If {@link #viewFactory} is defined, take an idle view from the pool, or create one if there is none.</li>
+	 * <li>If neither {@link #view} nor {@link #viewFactory} are defined, return null.</li>
 	 * </ol>
 	 * 
 	 * @param req	The request object, guaranteed to match this route.
@@ -157,10 +375,57 @@ public class Route
 	 */
 	public View getView (Request req)
 	{
+		View methodView = getMethodView (req.getMethod ());
+		if (methodView != null)
+			return methodView;
+		
 		if (view != null)
 			return view;
 		
-		if (viewClass != null)
+		if (pool != null)
+			return pool.obtain ();
+		
+		return null;
+	}
+	
+	/**
+	 * Gives back a view retrieved with {@link #getView(Request)} once it has finished
+	 * handling its request. Subclasses that override {@link #getView(Request)} may need
+	 * to override this method as well.
+	 * 
+	 * <p>
+	 * The default implementation returns views created by {@link #viewFactory} to the pool.
+	 * </p>
+	 * 
+	 * @param view	The view.
+	 */
+	public void releaseView (View view)
+	{
+		if (pool == null || view == null)
+			return;
+		
+		View[] views = methodViews;
+		if (views != null)
+			for (int i = 0; i < views.length; i++)
+				if (views[i] == view)
+					return;
+		
+		pool.release (view);
+	}
+	
+	/**
+	 * Creates views of a class through reflection.
+	 */
+	private static class ClassViewFactory implements ViewFactory
+	{
+		private final Class viewClass;
+		
+		ClassViewFactory (Class viewClass)
+		{
+			this.viewClass = viewClass;
+		}
+		
+		public View createView ()
 		{
 			try {
 				return (View) viewClass.newInstance ();
@@ -174,8 +439,8 @@ public class Route
 					", ensure that the class is public");
 				e.printStackTrace();
 			}
+			
+			return null;
 		}
-		
-		return null;
 	}
 }
@@ -0,0 +1,225 @@
+package org.team4159.boths;
+
+import java.util.Vector;
+
+/**
+ * An immutable table of {@link Route}s compiled into a radix tree keyed by path,
+ * so that finding the route of a request takes time proportional to the length
+ * of its path rather than to the number of routes.
+ * 
+ * <p>
+ * The result is the same as trying every route in order of registration and
+ * taking the first one that matches: among the exact routes ending at the path
+ * and the prefix routes along it, the one registered first wins. Routes with
+ * parameters are put in the tree under the part of their path before the first
+ * parameter, and matched against the rest of the path from there. Routes of
+ * subclasses of {@link Route}, which may override {@link Route#matches(String)},
+ * are not put in the tree but tried in order with {@link Route#matches(String)}.
+ * </p>
+ * 
+ * <p>
+ * A {@link Server} builds a new router whenever its routes change, so lookups
+ * need no locking.
+ * </p>
+ */
+class Router
+{
+	private static final int NONE = Integer.MAX_VALUE;
+	
+	private static class Node
+	{
+		String label;
+		Node[] children = new Node[0];
+		
+		// lowest registration index of the routes ending at this node
+		int exact = NONE;
+		int prefix = NONE;
+		
+		// registration indexes of the routes with parameters starting at this node, in order
+		int[] patterns = new int[0];
+		
+		Node (String label)
+		{
+			this.label = label;
+		}
+	}
+	
+	private final Route[] routes;
+	private final Node root = new Node ("");
+	private final int[] others;
+	
+	Router (Vector routeList)
+	{
+		routes = new Route[routeList.size ()];
+		routeList.copyInto (routes);
+		
+		int[] others = new int[routes.length];
+		int nothers = 0;
+		
+		for (int i = 0; i < routes.length; i++)
+		{
+			Route route = routes[i];
+			if (route.getClass () != Route.class)
+			{
+				others[nothers++] = i;
+				continue;
+			}
+			
+			if (route.pathPrefix == null)
+				continue;
+			
+			if (route.pattern != null)
+			{
+				Node node = insert (route.pattern.literals[0]);
+				int[] patterns = new int[node.patterns.length + 1];
+				System.arraycopy (node.patterns, 0, patterns, 0, node.patterns.length);
+				patterns[node.patterns.length] = i;
+				node.patterns = patterns;
+				continue;
+			}
+			
+			Node node = insert (route.pathPrefix);
+			if (route.exactPathMatch)
+				node.exact = Math.min (node.exact, i);
+			else
+				node.prefix = Math.min (node.prefix, i);
+		}
+		
+		this.others = new int[nothers];
+		System.arraycopy (others, 0, this.others, 0, nothers);
+	}
+	
+	/**
+	 * Finds the node for a key, creating it and splitting edges as needed.
+	 */
+	private Node insert (String key)
+	{
+		Node node = root;
+		int pos = 0;
+		int len = key.length ();
+		
+		while (pos < len)
+		{
+			Node child = childStartingWith (node, key.charAt (pos));
+			if (child == null)
+			{
+				child = new Node (key.substring (pos));
+				addChild (node, child);
+				return child;
+			}
+			
+			// length of the common prefix of the edge and the rest of the key
+			String label = child.label;
+			int common = 0;
+			while (common < label.length () && pos + common < len && label.charAt (common) == key.charAt (pos + common))
+				common++;
+			
+			if (common < label.length ())
+			{
+				// split the edge
+				Node middle = new Node (label.substring (0, common));
+				child.label = label.substring (common);
+				middle.children = new Node[] { child };
+				replaceChild (node, child, middle);
+				child = middle;
+			}
+			
+			node = child;
+			pos += common;
+		}
+		
+		return node;
+	}
+	
+	private static Node childStartingWith (Node node, char c)
+	{
+		Node[] children = node.children;
+		for (int i = 0; i < children.length; i++)
+			if (children[i].label.charAt (0) == c)
+				return children[i];
+		return null;
+	}
+	
+	private static void addChild (Node node, Node child)
+	{
+		Node[] children = new Node[node.children.length + 1];
+		System.arraycopy (node.children, 0, children, 0, node.children.length);
+		children[node.children.length] = child;
+		node.children = children;
+	}
+	
+	private static void replaceChild (Node node, Node child, Node replacement)
+	{
+		for (int i = 0; i < node.children.length; i++)
+			if (node.children[i] == child)
+				node.children[i] = replacement;
+	}
+	
+	/**
+	 * Finds the route that handles a request, and records the values of the
+	 * parameters in its path, if any, in the request.
+	 * 
+	 * @param req	The request.
+	 * @return		The route, or null if no route matches.
+	 */
+	Route find (Request req)
+	{
+		Route route = find (req.path);
+		if (route != null && route.pattern != null)
+			route.pattern.match (req.path, route.exactPathMatch, req.setPathParams (route.pattern.names));
+		return route;
+	}
+	
+	/**
+	 * Finds the route that handles a path.
+	 * 
+	 * @param path	The path of the request, excluding the query string.
+	 * @return		The route, or null if no route matches.
+	 */
+	Route find (String path)
+	{
+		int best = NONE;
+		Node node = root;
+		int pos = 0;
+		int len = path.length ();
+		
+		for (;;)
+		{
+			best = Math.min (best, node.prefix);
+			
+			int[] patterns = node.patterns;
+			for (int i = 0; i < patterns.length && patterns[i] < best; i++)
+			{
+				Route route = routes[patterns[i]];
+				if (route.pattern.match (path, route.exactPathMatch, null))
+				{
+					best = patterns[i];
+					break;
+				}
+			}
+			
+			if (pos == len)
+			{
+				best = Math.min (best, node.exact);
+				break;
+			}
+			
+			node = childStartingWith (node, path.charAt (pos));
+			if (node == null || !path.startsWith (node.label, pos))
+				break;
+			pos += node.label.length ();
+		}
+		
+		// routes that match by other means, if registered before the best so far
+		for (int i = 0; i < others.length && others[i] < best; i++)
+		{
+			if (routes[others[i]].matches (path))
+			{
+				best = others[i];
+				break;
+			}
+		}
+		
+		return best == NONE ? null : routes[best];
+	}
+}
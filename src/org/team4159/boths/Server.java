@@ -19,8 +19,10 @@ import javax.microedition.io.StreamConnection;
  */
 public class Server implements Runnable
 {
-	private class Worker extends Thread
+	class Worker extends Thread
 	{
+		final Recycler recycler = new Recycler ();
+		
 		public void run ()
 		{
 			while (keepGoing)
@@ -75,9 +77,27 @@ public class Server implements Runnable
 	
 	/**
 	 * URL routes to match paths to while dealing with requests.
+	 * Only change it through {@link #addRoute(Route)} and {@link #removeRoute(Route)},
+	 * which recompile the routes used to handle requests.
 	 */
 	protected final Vector routes = new Vector ();
 	
+	private volatile Router router = new Router (routes);
+	
+	/**
+	 * Enables or disables checks for views that keep using the {@link Request} of a
+	 * request, or a {@link Response} marked with {@link Response#setRecyclable(boolean)},
+	 * after it has been handled, whose buffers are reused for the next request handled
+	 * by the same worker thread. When enabled,
+	 * such use throws an {@link IllegalStateException}. Default is disabled.
+	 * 
+	 * @param enabled	Whether to check for use of recycled objects.
+	 */
+	public static void setDebugRecycling (boolean enabled)
+	{
+		Recycler.debug = enabled;
+	}
+	
 	/**
 	 * Initializes an {@link Server} instance on port 8080.
 	 */
@@ -151,8 +171,14 @@ public class Server implements Runnable
 	 */
 	public Route addRoute (Route route)
 	{
-		if (!routes.contains (route))
-			routes.addElement (route);
+		synchronized (routes)
+		{
+			if (!routes.contains (route))
+			{
+				routes.addElement (route);
+				router = new Router (routes);
+			}
+		}
 		return route;
 	}
 	
@@ -166,6 +192,16 @@ public class Server implements Runnable
 		return addRoute (new Route (pathPrefix, view, exactPathMatch));
 	}
 	
+	public Route addRoute (String pathPrefix, ViewFactory viewFactory)
+	{
+		return addRoute (new Route (pathPrefix, viewFactory));
+	}
+	
+	public Route addRoute (String pathPrefix, ViewFactory viewFactory, boolean exactPathMatch)
+	{
+		return addRoute (new Route (pathPrefix, viewFactory, exactPathMatch));
+	}
+	
 	/**
 	 * Removes a route from the route list.
 	 * 
@@ -174,7 +210,19 @@ public class Server implements Runnable
 	 */
 	public void removeRoute (Route route)
 	{
-		routes.removeElement (route);
+		synchronized (routes)
+		{
+			if (routes.removeElement (route))
+				router = new Router (routes);
+		}
+	}
+	
+	/**
+	 * Gets the compiled routes, which are replaced whenever a route is added or removed.
+	 */
+	Router getRouter ()
+	{
+		return router;
 	}
 	
 	/**
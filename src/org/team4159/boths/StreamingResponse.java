@@ -0,0 +1,128 @@
+package org.team4159.boths;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import org.team4159.boths.util.ChunkedOutputStream;
+
+/**
+ * A {@link Response} whose body is written straight to the client as it is produced,
+ * rather than buffered in memory, so that long listings start arriving immediately
+ * and take constant memory however large they are.
+ * 
+ * <p>
+ * Subclasses produce the body in {@link #writeContent(OutputStream)}, which is called
+ * after the headers have been sent. The body is sent with {@code Transfer-Encoding: chunked}
+ * in chunks of the size given to the constructor, and a chunk is also sent whenever
+ * the stream is flushed. Anything written to the response itself (or its {@link #writer})
+ * before it is sent goes out first. Clients using HTTP/1.0 receive the body as is,
+ * terminated by closing the connection.
+ * </p>
+ * 
+ * <p>
+ * Since the status and headers have been sent by the time the body is produced, an
+ * error in {@link #writeContent(OutputStream)} can only cut the body short; a client
+ * receiving a chunked body can tell, since the last chunk is missing.
+ * </p>
+ */
+public abstract class StreamingResponse extends Response
+{
+	/**
+	 * The chunk size used unless specified otherwise, in bytes.
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 4096;
+	
+	private final int chunkSize;
+	
+	// set before each send, and cleared for clients that do not understand chunked bodies
+	boolean chunked = true;
+	
+	/**
+	 * Creates a streaming response with the default content type and chunk size.
+	 */
+	public StreamingResponse ()
+	{
+		this (null, DEFAULT_CHUNK_SIZE);
+	}
+	
+	/**
+	 * Creates a streaming response with the default chunk size.
+	 * 
+	 * @param content_type
+	 *           The MIME type of the returned content.
+	 */
+	public StreamingResponse (String content_type)
+	{
+		this (content_type, DEFAULT_CHUNK_SIZE);
+	}
+	
+	/**
+	 * Creates a streaming response.
+	 * 
+	 * @param content_type
+	 *           The MIME type of the returned content.
+	 * 
+	 * @param chunkSize
+	 *           The size of the chunks in which the body is sent, in bytes.
+	 */
+	public StreamingResponse (String content_type, int chunkSize)
+	{
+		super (null, content_type);
+		
+		if (chunkSize <= 0)
+			throw new IllegalArgumentException ("chunk size must be positive");
+		this.chunkSize = chunkSize;
+	}
+	
+	/**
+	 * Writes the body of the response. This method is called once the headers have
+	 * been sent, and the stream should not be closed.
+	 * 
+	 * @param os	The stream to which the body shall be written.
+	 * @throws IOException
+	 */
+	protected abstract void writeContent (OutputStream os) throws IOException;
+	
+	/**
+	 * Prepares the response for output by adding various necessary headers,
+	 * including {@code Transfer-Encoding}.
+	 */
+	public void prepare ()
+	{
+		super.prepare ();
+		if (chunked)
+			setHeader (HeaderNames.TRANSFER_ENCODING, "chunked");
+		else
+			deleteHeader (HeaderNames.TRANSFER_ENCODING);
+		deleteHeader (HeaderNames.CONTENT_LENGTH);
+	}
+	
+	boolean gathersBody ()
+	{
+		return false;
+	}
+	
+	/**
+	 * Writes the main body of this response to an {@link OutputStream} as it is
+	 * produced by {@link #writeContent(OutputStream)}.
+	 * 
+	 * @param os		The {@link OutputStream} to which the body shall be written.
+	 * @throws IOException
+	 */
+	public void writeBodyToOutputStream (OutputStream os) throws IOException
+	{
+		// let the client see the headers before the body is produced
+		os.flush ();
+		
+		if (!chunked)
+		{
+			os.write (buf, 0, count);
+			writeContent (os);
+			return;
+		}
+		
+		ChunkedOutputStream cos = new ChunkedOutputStream (os, chunkSize);
+		cos.write (buf, 0, count);
+		writeContent (cos);
+		cos.close ();
+	}
+}
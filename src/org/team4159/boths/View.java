@@ -13,12 +13,39 @@ public abstract class View
 	 * Handles the request and returns a {@link Response} object accordingly.
 	 * Custom behavior should be implemented by overriding this method.
 	 * 
+	 * <p>
+	 * The same {@link Response} may be returned for several requests, such as a page
+	 * built once and kept. A {@link Response} created for this request alone can be
+	 * marked with {@link Response#setRecyclable(boolean)} so that its buffer is reused
+	 * for the next response once it has been sent. The {@link Request} must not be used
+	 * after {@link #postResponse(Request, Response, InputStream, OutputStream)} has returned.
+	 * See {@link Server#setDebugRecycling(boolean)}.
+	 * </p>
+	 * 
 	 * @param req		The {@link Request} object.
 	 * @param route	The {@link Route} that routed the request to this {@link View}.
 	 * @return			The {@link Response} to be sent back to the client.
 	 */
 	public abstract Response getResponse (Request req, Route route);
 	
+	/**
+	 * Decides whether the body of a request should be accepted, before any of it is read.
+	 * If not, the client receives a 413 response instead of {@link #getResponse(Request, Route)}
+	 * being called, and a client that sent {@code Expect: 100-continue} never sends the body.
+	 * Only called for requests that have a body.
+	 * 
+	 * The default implementation accepts chunked bodies and bodies no larger than the
+	 * maximum POST size. Views that read the body as a stream should override it.
+	 * 
+	 * @param req	The {@link Request} object.
+	 * @param route	The {@link Route} that routed the request to this {@link View}.
+	 * @return		Whether the body should be accepted.
+	 */
+	public boolean acceptsBody (Request req, Route route)
+	{
+		return req.getContentLength () <= Request.getMaximumPostSize ();
+	}
+	
 	/**
 	 * Optionally continues handling the request after a response from {@link #getResponse(Request, Route)}
 	 * has been sent to the client.
@@ -0,0 +1,23 @@
+package org.team4159.boths;
+
+/**
+ * Creates instances of a {@link View} that is not thread-safe, for a {@link Route}
+ * to keep in a pool and reuse for one request at a time.
+ * 
+ * <p>
+ * Expensive setup, such as loading a template, belongs in the constructor of the
+ * view, as it happens only once per pooled instance.
+ * </p>
+ * 
+ * @see Route#Route(String, ViewFactory, boolean, int)
+ */
+public interface ViewFactory
+{
+	/**
+	 * Creates a new instance of the view.
+	 * 
+	 * @return	The new view, or null if it could not be created, in which case
+	 * the client receives a 500 response.
+	 */
+	View createView ();
+}
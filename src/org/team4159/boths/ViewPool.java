@@ -0,0 +1,53 @@
+package org.team4159.boths;
+
+/**
+ * A bounded pool of idle instances of a view, each handling one request at a time.
+ * 
+ * <p>
+ * When no instance is idle, a new one is created, so requests never wait for each
+ * other; at most {@link #idle}{@code .length} instances are kept once they are released.
+ * </p>
+ */
+class ViewPool
+{
+	private final ViewFactory factory;
+	private final View[] idle;
+	private int count = 0;
+	
+	ViewPool (ViewFactory factory, int size)
+	{
+		if (size < 0)
+			throw new IllegalArgumentException ("pool size must not be negative");
+		
+		this.factory = factory;
+		this.idle = new View[size];
+	}
+	
+	/**
+	 * Takes an idle view, or creates one if there is none.
+	 */
+	View obtain ()
+	{
+		synchronized (this)
+		{
+			if (count > 0)
+			{
+				View view = idle[--count];
+				idle[count] = null;
+				return view;
+			}
+		}
+		
+		return factory.createView ();
+	}
+	
+	/**
+	 * Returns a view that has finished handling a request to the pool,
+	 * dropping it if the pool is full.
+	 */
+	synchronized void release (View view)
+	{
+		if (count < idle.length)
+			idle[count++] = view;
+	}
+}
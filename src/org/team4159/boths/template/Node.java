@@ -1,5 +1,7 @@
 package org.team4159.boths.template;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Hashtable;
 
 /**
@@ -14,4 +16,16 @@ public abstract class Node
 	 * @return			The rendered output.
 	 */
 	public abstract String render (Hashtable context);
+	
+	/**
+	 * Renders this node to a {@link Writer}.
+	 * 
+	 * @param context	The context variables of the scope in which this node is located.
+	 * @param out		The {@link Writer} receiving the rendered output.
+	 * @throws IOException
+	 */
+	public void render (Hashtable context, Writer out) throws IOException
+	{
+		out.write (render (context));
+	}
 }
@@ -87,7 +87,30 @@ public class Template
 	 */
 	public Response renderToResponse (Hashtable context)
 	{
-		return new Response (render (context));
+		return renderToResponse (context, false);
+	}
+	
+	/**
+	 * Renders the template to a {@link Response} object that may be recyclable.
+	 * 
+	 * @param context		A {@link Hashtable} of context variables.
+	 * @param recyclable	Whether the response is rendered for a single request and not kept;
+	 * 						see {@link Response#Response(String, String, boolean)}.
+	 * @return				The {@link Response} object with the rendered template content.
+	 */
+	public Response renderToResponse (Hashtable context, boolean recyclable)
+	{
+		if (context == null)
+			context = EMPTY_CONTEXT;
+		
+		Response res = new Response (null, null, recyclable);
+		try {
+			rootNode.render (context, res.writer);
+		} catch (IOException e) {
+			// the writer of a response does not throw
+			e.printStackTrace ();
+		}
+		return res;
 	}
 	
 	/**
@@ -1,5 +1,7 @@
 package org.team4159.boths.template;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Hashtable;
 import java.util.Vector;
 
@@ -22,5 +24,12 @@ class TreeNode extends Node
 		
 		return ret.toString ();
 	}
+	
+	public void render (Hashtable context, Writer out) throws IOException
+	{
+		int len = nodes.size ();
+		for (int i = 0; i < len; i++)
+			((Node) nodes.elementAt (i)).render (context, out);
+	}
 
 }
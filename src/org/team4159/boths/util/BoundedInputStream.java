@@ -0,0 +1,70 @@
+package org.team4159.boths.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An {@link InputStream} that returns at most a given number of bytes from
+ * another stream, then reports end of stream. Unlike {@link LimitingInputStream},
+ * reaching the limit is not an error, but the underlying stream ending before it is.
+ */
+public class BoundedInputStream extends InputStream
+{
+	private final InputStream is;
+	private long remaining;
+	
+	public BoundedInputStream (InputStream is, long length)
+	{
+		this.is = is;
+		this.remaining = length;
+	}
+	
+	public int read () throws IOException
+	{
+		if (remaining <= 0)
+			return -1;
+		
+		int k = is.read ();
+		if (k < 0)
+			throw new EOFException ("stream ended " + remaining + " bytes early");
+		remaining--;
+		return k;
+	}
+	
+	public int read (byte[] buf, int off, int len) throws IOException
+	{
+		if (len == 0)
+			return 0;
+		if (remaining <= 0)
+			return -1;
+		
+		int n = is.read (buf, off, (int) Math.min (len, remaining));
+		if (n < 0)
+			throw new EOFException ("stream ended " + remaining + " bytes early");
+		remaining -= n;
+		return n;
+	}
+	
+	public int available () throws IOException
+	{
+		return (int) Math.min (remaining, is.available ());
+	}
+	
+	/**
+	 * Gets the number of bytes that have not been read yet.
+	 * 
+	 * @return	The number of bytes left before the end of this stream.
+	 */
+	public long remaining ()
+	{
+		return remaining;
+	}
+	
+	/**
+	 * Does not close the underlying stream.
+	 */
+	public void close ()
+	{
+	}
+}
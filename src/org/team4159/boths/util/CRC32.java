@@ -0,0 +1,51 @@
+package org.team4159.boths.util;
+
+/**
+ * Computes the CRC-32 checksum used by gzip, as {@code java.util.zip.CRC32} does
+ * on platforms that have it.
+ */
+public class CRC32
+{
+	private static final int[] TABLE = new int[256];
+	
+	static {
+		for (int n = 0; n < 256; n++)
+		{
+			int c = n;
+			for (int k = 0; k < 8; k++)
+				c = (c & 1) != 0 ? 0xedb88320 ^ (c >>> 1) : c >>> 1;
+			TABLE[n] = c;
+		}
+	}
+	
+	private int crc = 0;
+	
+	/**
+	 * Updates the checksum with a range of bytes.
+	 */
+	public void update (byte[] buf, int off, int len)
+	{
+		int c = ~crc;
+		int end = off + len;
+		for (int i = off; i < end; i++)
+			c = TABLE[(c ^ buf[i]) & 0xff] ^ (c >>> 8);
+		crc = ~c;
+	}
+	
+	/**
+	 * Gets the checksum of the bytes passed to {@link #update(byte[], int, int)}
+	 * since the last reset.
+	 */
+	public long getValue ()
+	{
+		return crc & 0xffffffffL;
+	}
+	
+	/**
+	 * Resets the checksum to that of no bytes.
+	 */
+	public void reset ()
+	{
+		crc = 0;
+	}
+}
@@ -0,0 +1,205 @@
+package org.team4159.boths.util;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Hashtable;
+
+/**
+ * An {@link InputStream} that decodes a body sent with
+ * {@code Transfer-Encoding: chunked}, reporting end of stream after the last
+ * chunk. Trailer fields sent after the last chunk can be retrieved with
+ * {@link #getTrailer(String)} once the end has been reached.
+ */
+public class ChunkedInputStream extends InputStream
+{
+	private static final int MAXIMUM_LINE_LENGTH = 1024;
+	
+	private final InputStream is;
+	private final int maximumChunkSize;
+	private final long maximumLength;
+	
+	private int chunkRemaining;
+	private long length;
+	private boolean first = true;
+	private boolean finished;
+	private Hashtable trailers;
+	
+	/**
+	 * @param is				The stream to decode.
+	 * @param maximumChunkSize	The largest chunk size accepted, in bytes.
+	 * @param maximumLength		The largest total size of the decoded body accepted, in bytes.
+	 */
+	public ChunkedInputStream (InputStream is, int maximumChunkSize, long maximumLength)
+	{
+		this.is = is;
+		this.maximumChunkSize = maximumChunkSize;
+		this.maximumLength = maximumLength;
+	}
+	
+	public int read () throws IOException
+	{
+		if (!nextChunk ())
+			return -1;
+		
+		int k = is.read ();
+		if (k < 0)
+			throw new EOFException ("stream ended inside a chunk");
+		chunkRemaining--;
+		return k;
+	}
+	
+	public int read (byte[] buf, int off, int len) throws IOException
+	{
+		if (len == 0)
+			return 0;
+		if (!nextChunk ())
+			return -1;
+		
+		int n = is.read (buf, off, Math.min (len, chunkRemaining));
+		if (n < 0)
+			throw new EOFException ("stream ended inside a chunk");
+		chunkRemaining -= n;
+		return n;
+	}
+	
+	public int available () throws IOException
+	{
+		return finished ? 0 : Math.min (chunkRemaining, is.available ());
+	}
+	
+	/**
+	 * Reads the header of the next chunk if the current one has been read entirely.
+	 * 
+	 * @return	false if the last chunk has been read.
+	 */
+	private boolean nextChunk () throws IOException
+	{
+		while (chunkRemaining == 0)
+		{
+			if (finished)
+				return false;
+			
+			if (!first && readLine ().length () != 0)
+				throw new IOException ("missing CRLF after chunk");
+			first = false;
+			
+			String line = readLine ();
+			int ext = line.indexOf (';');
+			if (ext >= 0)
+				line = line.substring (0, ext);
+			line = line.trim ();
+			
+			long size;
+			try {
+				if (line.length () == 0 || line.length () > 15)
+					throw new NumberFormatException ();
+				size = Long.parseLong (line, 16);
+			} catch (NumberFormatException e) {
+				throw new IOException ("invalid chunk size");
+			}
+			
+			if (size > maximumChunkSize)
+				throw new IOException ("chunk larger than " + maximumChunkSize + " bytes");
+			length += size;
+			if (length > maximumLength)
+				throw new IOException ("chunked body larger than " + maximumLength + " bytes");
+			
+			if (size == 0)
+			{
+				readTrailers ();
+				finished = true;
+				return false;
+			}
+			
+			chunkRemaining = (int) size;
+		}
+		
+		return true;
+	}
+	
+	private void readTrailers () throws IOException
+	{
+		trailers = new Hashtable ();
+		int total = 0;
+		
+		for (;;)
+		{
+			String line = readLine ();
+			if (line.length () == 0)
+				break;
+			
+			total += line.length ();
+			if (total > MAXIMUM_LINE_LENGTH)
+				throw new IOException ("trailers too large");
+			
+			int colon = line.indexOf (':');
+			if (colon <= 0)
+				throw new IOException ("separator not found in trailer entry");
+			trailers.put (line.substring (0, colon).trim ().toLowerCase (), line.substring (colon + 1).trim ());
+		}
+	}
+	
+	private String readLine () throws IOException
+	{
+		StringBuffer sb = new StringBuffer ();
+		
+		for (;;)
+		{
+			int k = is.read ();
+			if (k < 0)
+				throw new EOFException ("stream ended inside a chunk header");
+			if (k == '\n')
+				break;
+			if (k == '\r')
+				continue;
+			
+			if (sb.length () == MAXIMUM_LINE_LENGTH)
+				throw new IOException ("chunk header line too long");
+			sb.append ((char) k);
+		}
+		
+		return sb.toString ();
+	}
+	
+	/**
+	 * Gets a trailer field sent after the last chunk given a case-insensitive key.
+	 * 
+	 * @param key	The name of the trailer field.
+	 * @return		The value, or null if the field does not exist or the end
+	 * of the body has not been reached yet.
+	 */
+	public String getTrailer (String key)
+	{
+		if (trailers == null)
+			return null;
+		return (String) trailers.get (key.toLowerCase ());
+	}
+	
+	/**
+	 * Checks whether the last chunk and the trailers have been read.
+	 * 
+	 * @return	true if the end of the body has been reached.
+	 */
+	public boolean isFinished ()
+	{
+		return finished;
+	}
+	
+	/**
+	 * Gets the number of decoded bytes declared by the chunks read so far.
+	 * 
+	 * @return	The length in bytes.
+	 */
+	public long getLength ()
+	{
+		return length;
+	}
+	
+	/**
+	 * Does not close the underlying stream.
+	 */
+	public void close ()
+	{
+	}
+}
@@ -0,0 +1,107 @@
+package org.team4159.boths.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * An {@link OutputStream} that encodes a body with {@code Transfer-Encoding: chunked},
+ * sending a chunk whenever its buffer is full or it is flushed. {@link #close()} sends
+ * the last chunk but leaves the underlying stream open.
+ */
+public class ChunkedOutputStream extends OutputStream
+{
+	private static final byte[] CRLF = { '\r', '\n' };
+	private static final byte[] LAST_CHUNK = { '0', '\r', '\n', '\r', '\n' };
+	private static final char[] HEX = "0123456789abcdef".toCharArray ();
+	
+	private final OutputStream os;
+	private final byte[] buf;
+	private final byte[] sizeLine = new byte[10];
+	private int count;
+	private boolean closed;
+	
+	/**
+	 * @param os		The stream to which the chunks are written.
+	 * @param chunkSize	The size of the chunks sent when the buffer fills up, in bytes.
+	 */
+	public ChunkedOutputStream (OutputStream os, int chunkSize)
+	{
+		if (chunkSize <= 0)
+			throw new IllegalArgumentException ("chunk size must be positive");
+		
+		this.os = os;
+		this.buf = new byte[chunkSize];
+	}
+	
+	public void write (int b) throws IOException
+	{
+		checkClosed ();
+		if (count == buf.length)
+			writeChunk ();
+		buf[count++] = (byte) b;
+	}
+	
+	public void write (byte[] b, int off, int len) throws IOException
+	{
+		checkClosed ();
+		while (len > 0)
+		{
+			if (count == buf.length)
+				writeChunk ();
+			
+			int n = Math.min (len, buf.length - count);
+			System.arraycopy (b, off, buf, count, n);
+			count += n;
+			off += n;
+			len -= n;
+		}
+	}
+	
+	/**
+	 * Sends the buffered bytes as a chunk, if there are any, and flushes the underlying stream.
+	 */
+	public void flush () throws IOException
+	{
+		checkClosed ();
+		writeChunk ();
+		os.flush ();
+	}
+	
+	/**
+	 * Sends the buffered bytes and the last chunk, ending the body.
+	 */
+	public void close () throws IOException
+	{
+		if (closed)
+			return;
+		
+		writeChunk ();
+		os.write (LAST_CHUNK);
+		os.flush ();
+		closed = true;
+	}
+	
+	private void writeChunk () throws IOException
+	{
+		if (count == 0)
+			return;
+		
+		// size in hex followed by CRLF, right-aligned in sizeLine
+		int pos = sizeLine.length - 2;
+		sizeLine[pos] = '\r';
+		sizeLine[pos + 1] = '\n';
+		for (int n = count; n != 0; n >>>= 4)
+			sizeLine[--pos] = (byte) HEX[n & 0xf];
+		
+		os.write (sizeLine, pos, sizeLine.length - pos);
+		os.write (buf, 0, count);
+		os.write (CRLF);
+		count = 0;
+	}
+	
+	private void checkClosed () throws IOException
+	{
+		if (closed)
+			throw new IOException ("stream closed");
+	}
+}
@@ -0,0 +1,350 @@
+package org.team4159.boths.util;
+
+/**
+ * Compresses data in the DEFLATE format (RFC 1951), wrapped for the {@code gzip}
+ * (RFC 1952) or {@code deflate} (RFC 1950) content codings.
+ * 
+ * <p>
+ * The platform has no {@code java.util.zip}, so this is a small compressor of its
+ * own: greedy LZ77 matching over an 8 KiB window with hash chains, and a single
+ * block of fixed Huffman codes. It compresses text such as HTML, CSS and JavaScript
+ * to well under half its size at a fraction of the cost of a full implementation.
+ * </p>
+ * 
+ * <p>
+ * An instance keeps its tables and output buffer from one call to the next,
+ * so it should be reused, but it must not be used by several threads at once.
+ * </p>
+ */
+public class Deflater
+{
+	/**
+	 * Raw DEFLATE data, with no header or checksum.
+	 */
+	public static final int RAW = 0;
+	
+	/**
+	 * The zlib format, as used by the {@code deflate} content coding.
+	 */
+	public static final int ZLIB = 1;
+	
+	/**
+	 * The gzip format.
+	 */
+	public static final int GZIP = 2;
+	
+	private static final int WINDOW_SIZE = 8192;
+	private static final int WINDOW_MASK = WINDOW_SIZE - 1;
+	private static final int HASH_SIZE = 4096;
+	private static final int HASH_MASK = HASH_SIZE - 1;
+	private static final int MIN_MATCH = 3;
+	private static final int MAX_MATCH = 258;
+	private static final int MAX_CHAIN = 32;
+	
+	private static final int[] LENGTH_BASE = {
+		3, 4, 5, 6, 7, 8, 9, 10, 11, 13, 15, 17, 19, 23, 27, 31,
+		35, 43, 51, 59, 67, 83, 99, 115, 131, 163, 195, 227, 258
+	};
+	private static final int[] LENGTH_EXTRA = {
+		0, 0, 0, 0, 0, 0, 0, 0, 1, 1, 1, 1, 2, 2, 2, 2,
+		3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0
+	};
+	private static final int[] DIST_BASE = {
+		1, 2, 3, 4, 5, 7, 9, 13, 17, 25, 33, 49, 65, 97, 129, 193,
+		257, 385, 513, 769, 1025, 1537, 2049, 3073, 4097, 6145
+	};
+	private static final int[] DIST_EXTRA = {
+		0, 0, 0, 0, 1, 1, 2, 2, 3, 3, 4, 4, 5, 5, 6, 6,
+		7, 7, 8, 8, 9, 9, 10, 10, 11, 11
+	};
+	
+	// fixed Huffman codes of the literal/length symbols, bit-reversed for LSB-first output
+	private static final short[] LITERAL_CODES = new short[288];
+	private static final byte[] LITERAL_BITS = new byte[288];
+	
+	// length code index for each match length, and distance code for each distance - 1
+	private static final byte[] LENGTH_CODE = new byte[MAX_MATCH + 1];
+	private static final byte[] DIST_CODE = new byte[WINDOW_SIZE];
+	
+	static {
+		for (int sym = 0; sym < 288; sym++)
+		{
+			int code, bits;
+			if (sym < 144)
+			{
+				code = 0x30 + sym;
+				bits = 8;
+			}
+			else if (sym < 256)
+			{
+				code = 0x190 + sym - 144;
+				bits = 9;
+			}
+			else if (sym < 280)
+			{
+				code = sym - 256;
+				bits = 7;
+			}
+			else
+			{
+				code = 0xc0 + sym - 280;
+				bits = 8;
+			}
+			LITERAL_CODES[sym] = (short) reverse (code, bits);
+			LITERAL_BITS[sym] = (byte) bits;
+		}
+		
+		for (int i = 0; i < LENGTH_BASE.length; i++)
+		{
+			int end = i + 1 < LENGTH_BASE.length ? LENGTH_BASE[i + 1] : MAX_MATCH + 1;
+			for (int len = LENGTH_BASE[i]; len < end; len++)
+				LENGTH_CODE[len] = (byte) i;
+		}
+		
+		for (int i = 0; i < DIST_BASE.length; i++)
+		{
+			int end = i + 1 < DIST_BASE.length ? DIST_BASE[i + 1] : WINDOW_SIZE + 1;
+			for (int dist = DIST_BASE[i]; dist < end; dist++)
+				DIST_CODE[dist - 1] = (byte) i;
+		}
+	}
+	
+	// most recent position + 1 for each hash, and previous position + 1 with the same hash
+	private final int[] head = new int[HASH_SIZE];
+	private final int[] prev = new int[WINDOW_SIZE];
+	
+	private final CRC32 crc = new CRC32 ();
+	
+	private byte[] out = new byte[1024];
+	private int count;
+	private int bitBuffer;
+	private int bitCount;
+	
+	/**
+	 * Compresses a range of bytes. The result is available through {@link #getBuffer()}
+	 * until the next call.
+	 * 
+	 * @param buf		The data to compress.
+	 * @param off		The offset of the data in {@code buf}.
+	 * @param len		The length of the data.
+	 * @param format	{@link #RAW}, {@link #ZLIB} or {@link #GZIP}.
+	 * @return			The length of the compressed data.
+	 */
+	public int deflate (byte[] buf, int off, int len, int format)
+	{
+		count = 0;
+		bitBuffer = 0;
+		bitCount = 0;
+		ensureCapacity (len + (len >> 3) + 64);
+		
+		if (format == GZIP)
+		{
+			// magic, CM = deflate, no flags, no mtime, no XFL, OS = unknown
+			writeByte (0x1f);
+			writeByte (0x8b);
+			writeByte (8);
+			for (int i = 0; i < 6; i++)
+				writeByte (0);
+			writeByte (255);
+		}
+		else if (format == ZLIB)
+		{
+			// CM = deflate with a 32 KiB window, FLEVEL = fastest, FCHECK making it a multiple of 31
+			writeByte (0x78);
+			writeByte (0x01);
+		}
+		
+		compressBlock (buf, off, len);
+		
+		if (format == GZIP)
+		{
+			crc.reset ();
+			crc.update (buf, off, len);
+			writeInt32LE ((int) crc.getValue ());
+			writeInt32LE (len);
+		}
+		else if (format == ZLIB)
+		{
+			int adler = adler32 (buf, off, len);
+			writeByte (adler >>> 24);
+			writeByte (adler >>> 16);
+			writeByte (adler >>> 8);
+			writeByte (adler);
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * Gets the buffer holding the result of the last call to
+	 * {@link #deflate(byte[], int, int, int)}, from offset 0.
+	 */
+	public byte[] getBuffer ()
+	{
+		return out;
+	}
+	
+	/**
+	 * Writes the data as one final block with fixed Huffman codes.
+	 */
+	private void compressBlock (byte[] buf, int off, int len)
+	{
+		for (int i = 0; i < HASH_SIZE; i++)
+			head[i] = 0;
+		
+		// BFINAL = 1, BTYPE = 01
+		writeBits (1, 1);
+		writeBits (1, 2);
+		
+		int pos = 0;
+		while (pos < len)
+		{
+			int bestLength = 0;
+			int bestDistance = 0;
+			
+			if (len - pos >= MIN_MATCH)
+			{
+				int maxLength = Math.min (MAX_MATCH, len - pos);
+				int candidate = insert (buf, off, pos) - 1;
+				
+				for (int chain = MAX_CHAIN; candidate >= 0 && pos - candidate < WINDOW_SIZE && chain > 0; chain--)
+				{
+					if (buf[off + candidate + bestLength] == buf[off + pos + bestLength])
+					{
+						int l = 0;
+						while (l < maxLength && buf[off + candidate + l] == buf[off + pos + l])
+							l++;
+						if (l > bestLength)
+						{
+							bestLength = l;
+							bestDistance = pos - candidate;
+							if (l == maxLength)
+								break;
+						}
+					}
+					candidate = prev[candidate & WINDOW_MASK] - 1;
+				}
+			}
+			
+			if (bestLength >= MIN_MATCH)
+			{
+				writeMatch (bestLength, bestDistance);
+				int end = Math.min (pos + bestLength, len - MIN_MATCH + 1);
+				for (int p = pos + 1; p < end; p++)
+					insert (buf, off, p);
+				pos += bestLength;
+			}
+			else
+			{
+				writeSymbol (buf[off + pos] & 0xff);
+				pos++;
+			}
+		}
+		
+		writeSymbol (256);
+		if (bitCount > 0)
+			writeByte (bitBuffer);
+		bitBuffer = 0;
+		bitCount = 0;
+	}
+	
+	/**
+	 * Records that the three bytes at a position start there.
+	 * 
+	 * @return	The previous position + 1 at which the same hash was recorded, or 0.
+	 */
+	private int insert (byte[] buf, int off, int pos)
+	{
+		int i = off + pos;
+		int h = (((buf[i] & 0xff) << 8) ^ ((buf[i + 1] & 0xff) << 4) ^ (buf[i + 2] & 0xff)) & HASH_MASK;
+		int previous = head[h];
+		prev[pos & WINDOW_MASK] = previous;
+		head[h] = pos + 1;
+		return previous;
+	}
+	
+	private void writeSymbol (int sym)
+	{
+		writeBits (LITERAL_CODES[sym] & 0xffff, LITERAL_BITS[sym]);
+	}
+	
+	private void writeMatch (int length, int distance)
+	{
+		int lc = LENGTH_CODE[length];
+		writeSymbol (257 + lc);
+		if (LENGTH_EXTRA[lc] > 0)
+			writeBits (length - LENGTH_BASE[lc], LENGTH_EXTRA[lc]);
+		
+		int dc = DIST_CODE[distance - 1];
+		writeBits (reverse (dc, 5), 5);
+		if (DIST_EXTRA[dc] > 0)
+			writeBits (distance - DIST_BASE[dc], DIST_EXTRA[dc]);
+	}
+	
+	private void writeBits (int value, int bits)
+	{
+		bitBuffer |= value << bitCount;
+		bitCount += bits;
+		while (bitCount >= 8)
+		{
+			writeByte (bitBuffer);
+			bitBuffer >>>= 8;
+			bitCount -= 8;
+		}
+	}
+	
+	private void writeByte (int b)
+	{
+		if (count == out.length)
+			ensureCapacity (count + 1);
+		out[count++] = (byte) b;
+	}
+	
+	private void writeInt32LE (int v)
+	{
+		writeByte (v);
+		writeByte (v >>> 8);
+		writeByte (v >>> 16);
+		writeByte (v >>> 24);
+	}
+	
+	private void ensureCapacity (int capacity)
+	{
+		if (capacity <= out.length)
+			return;
+		
+		byte[] newout = new byte[Math.max (out.length << 1, capacity)];
+		System.arraycopy (out, 0, newout, 0, count);
+		out = newout;
+	}
+	
+	private static int reverse (int code, int bits)
+	{
+		int r = 0;
+		for (int i = 0; i < bits; i++)
+		{
+			r = (r << 1) | (code & 1);
+			code >>>= 1;
+		}
+		return r;
+	}
+	
+	private static int adler32 (byte[] buf, int off, int len)
+	{
+		int a = 1, b = 0;
+		int end = off + len;
+		while (off < end)
+		{
+			// sums stay below 2^31 for 3800 bytes at a time
+			int n = Math.min (end - off, 3800);
+			for (int i = 0; i < n; i++)
+			{
+				a += buf[off++] & 0xff;
+				b += a;
+			}
+			a %= 65521;
+			b %= 65521;
+		}
+		return (b << 16) | a;
+	}
+}
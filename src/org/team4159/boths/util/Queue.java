@@ -4,25 +4,48 @@ import java.util.NoSuchElementException;
 
 public class Queue
 {
-	private static final int OBJECT = 0;
-	private static final int NEXT = 1;
+	private static class Node
+	{
+		Object object;
+		long time;
+		Node next;
+	}
 	
-	private Object[] head = { null, null };
-	private Object[] tail = head;
+	private Node head = new Node ();
+	private Node tail = head;
 	private int size = 0;
 	
 	public synchronized void add (Object e)
 	{
-		Object[] next = new Object[]{ null, null };
-		tail[OBJECT] = e;
-		tail[NEXT] = next;
+		add (e, 0);
+	}
+	
+	/**
+	 * Adds an element along with a timestamp, which can later be retrieved
+	 * with {@link #elementTime()} while the element is at the head of the queue.
+	 */
+	public synchronized void add (Object e, long time)
+	{
+		Node next = new Node ();
+		tail.object = e;
+		tail.time = time;
+		tail.next = next;
 		tail = next;
 		size++;
 	}
 	
 	public synchronized Object element ()
 	{
-		return head[OBJECT];
+		return head.object;
+	}
+	
+	/**
+	 * Returns the timestamp the head element was added with,
+	 * or -1 if the queue is empty.
+	 */
+	public synchronized long elementTime ()
+	{
+		return size == 0 ? -1 : head.time;
 	}
 	
 	public synchronized Object poll ()
@@ -31,8 +54,8 @@ public class Queue
 			return null;
 		size--;
 		
-		Object ret = head[OBJECT];
-		head = (Object[]) head[NEXT];
+		Object ret = head.object;
+		head = head.next;
 		return ret;
 	}
 	
@@ -0,0 +1,371 @@
+package org.team4159.boths.util;
+
+/**
+ * A small, unsynchronized map from strings to strings, meant for the headers
+ * and parameters of a single request or response.
+ * 
+ * <p>
+ * Keys are looked up in an open-addressing table, optionally ignoring case
+ * without converting keys to lower case. A key may have several values, which
+ * are stored in order alongside the others rather than in a separate list.
+ * Entries can be iterated in the order they were added with {@link #size()},
+ * {@link #getKey(int)} and {@link #getValue(int)}.
+ * </p>
+ */
+public class StringMap
+{
+	private final boolean ignoreCase;
+	
+	// entries in insertion order; next links entries with the same key
+	private String[] keys;
+	private String[] values;
+	private int[] hashes;
+	private int[] next;
+	private int size;
+	
+	// index + 1 of the first entry of each key, 0 if the slot is empty
+	private int[] slots;
+	
+	/**
+	 * Creates a case-sensitive map.
+	 */
+	public StringMap ()
+	{
+		this (false);
+	}
+	
+	/**
+	 * Creates a map.
+	 * 
+	 * @param ignoreCase	Whether keys differing only in ASCII case are the same key.
+	 */
+	public StringMap (boolean ignoreCase)
+	{
+		this.ignoreCase = ignoreCase;
+		this.keys = new String[8];
+		this.values = new String[8];
+		this.hashes = new int[8];
+		this.next = new int[8];
+		this.slots = new int[16];
+	}
+	
+	/**
+	 * Gets the number of entries, counting every value of a key.
+	 * 
+	 * @return	The number of entries.
+	 */
+	public int size ()
+	{
+		return size;
+	}
+	
+	/**
+	 * Gets the key of an entry, as it was given when the entry was added.
+	 * 
+	 * @param i	The index of the entry, from 0 to {@link #size()} - 1.
+	 * @return	The key.
+	 */
+	public String getKey (int i)
+	{
+		return keys[i];
+	}
+	
+	/**
+	 * Gets the value of an entry.
+	 * 
+	 * @param i	The index of the entry, from 0 to {@link #size()} - 1.
+	 * @return	The value.
+	 */
+	public String getValue (int i)
+	{
+		return values[i];
+	}
+	
+	/**
+	 * Gets the value of a key, or the last one added if it has several.
+	 * 
+	 * @param key	The key.
+	 * @return		The value, or null if the key does not exist.
+	 */
+	public String get (String key)
+	{
+		int e = find (key, hash (key));
+		if (e < 0)
+			return null;
+		
+		while (next[e] >= 0)
+			e = next[e];
+		return values[e];
+	}
+	
+	/**
+	 * Gets all values of a key, in the order they were added.
+	 * 
+	 * @param key	The key.
+	 * @return		The values, or null if the key does not exist.
+	 */
+	public String[] getAll (String key)
+	{
+		int first = find (key, hash (key));
+		if (first < 0)
+			return null;
+		
+		int n = 0;
+		for (int e = first; e >= 0; e = next[e])
+			n++;
+		
+		String[] ret = new String[n];
+		n = 0;
+		for (int e = first; e >= 0; e = next[e])
+			ret[n++] = values[e];
+		return ret;
+	}
+	
+	/**
+	 * Checks whether a key exists.
+	 * 
+	 * @param key	The key.
+	 * @return		true if the key has at least one value.
+	 */
+	public boolean containsKey (String key)
+	{
+		return find (key, hash (key)) >= 0;
+	}
+	
+	/**
+	 * Sets the value of a key, replacing all of its values if it exists.
+	 * 
+	 * @param key	The key.
+	 * @param value	The value.
+	 */
+	public void put (String key, String value)
+	{
+		int h = hash (key);
+		int e = find (key, h);
+		if (e < 0)
+		{
+			append (key, value, h);
+			return;
+		}
+		
+		keys[e] = key;
+		values[e] = value;
+		if (next[e] >= 0)
+		{
+			next[e] = -1;
+			compact ();
+		}
+	}
+	
+	/**
+	 * Adds a value to a key, keeping the values it already has.
+	 * 
+	 * @param key	The key.
+	 * @param value	The value.
+	 */
+	public void add (String key, String value)
+	{
+		int h = hash (key);
+		int e = find (key, h);
+		int added = append (key, value, h);
+		
+		if (e >= 0)
+		{
+			while (next[e] >= 0)
+				e = next[e];
+			next[e] = added;
+		}
+	}
+	
+	/**
+	 * Removes a key and all of its values.
+	 * 
+	 * @param key	The key.
+	 */
+	public void remove (String key)
+	{
+		int e = find (key, hash (key));
+		if (e < 0)
+			return;
+		
+		for (; e >= 0; e = next[e])
+			keys[e] = null;
+		compact ();
+	}
+	
+	/**
+	 * Removes all entries.
+	 */
+	public void clear ()
+	{
+		for (int i = 0; i < size; i++)
+			keys[i] = values[i] = null;
+		for (int i = 0; i < slots.length; i++)
+			slots[i] = 0;
+		size = 0;
+	}
+	
+	/**
+	 * Adds an entry and, if its key is new, a slot pointing to it.
+	 * Linking the entry to earlier ones with the same key is left to the caller.
+	 * 
+	 * @return	The index of the entry.
+	 */
+	private int append (String key, String value, int h)
+	{
+		if (size == keys.length)
+			grow ();
+		
+		boolean exists = find (key, h) >= 0;
+		
+		int e = size++;
+		keys[e] = key;
+		values[e] = value;
+		hashes[e] = h;
+		next[e] = -1;
+		
+		if (!exists)
+			insertSlot (e);
+		return e;
+	}
+	
+	private void insertSlot (int e)
+	{
+		int mask = slots.length - 1;
+		int i = hashes[e] & mask;
+		while (slots[i] != 0)
+			i = (i + 1) & mask;
+		slots[i] = e + 1;
+	}
+	
+	private int find (String key, int h)
+	{
+		int mask = slots.length - 1;
+		for (int i = h & mask; slots[i] != 0; i = (i + 1) & mask)
+		{
+			int e = slots[i] - 1;
+			if (hashes[e] == h && equals (keys[e], key))
+				return e;
+		}
+		return -1;
+	}
+	
+	private void grow ()
+	{
+		int capacity = keys.length * 2;
+		
+		String[] newKeys = new String[capacity];
+		String[] newValues = new String[capacity];
+		int[] newHashes = new int[capacity];
+		int[] newNext = new int[capacity];
+		System.arraycopy (keys, 0, newKeys, 0, size);
+		System.arraycopy (values, 0, newValues, 0, size);
+		System.arraycopy (hashes, 0, newHashes, 0, size);
+		System.arraycopy (next, 0, newNext, 0, size);
+		keys = newKeys;
+		values = newValues;
+		hashes = newHashes;
+		next = newNext;
+		
+		slots = new int[capacity * 2];
+		rebuild ();
+	}
+	
+	/**
+	 * Drops removed entries and entries no longer linked from their key,
+	 * then rebuilds the slots and links.
+	 */
+	private void compact ()
+	{
+		// mark entries reachable from a slot
+		boolean[] live = new boolean[size];
+		for (int i = 0; i < slots.length; i++)
+		{
+			if (slots[i] == 0)
+				continue;
+			for (int e = slots[i] - 1; e >= 0; e = next[e])
+				live[e] = keys[e] != null;
+		}
+		
+		int n = 0;
+		for (int e = 0; e < size; e++)
+		{
+			if (!live[e])
+				continue;
+			keys[n] = keys[e];
+			values[n] = values[e];
+			hashes[n] = hashes[e];
+			n++;
+		}
+		for (int e = n; e < size; e++)
+			keys[e] = values[e] = null;
+		size = n;
+		
+		for (int i = 0; i < slots.length; i++)
+			slots[i] = 0;
+		rebuild ();
+	}
+	
+	/**
+	 * Fills the empty slot table and links entries with the same key in order.
+	 */
+	private void rebuild ()
+	{
+		for (int e = 0; e < size; e++)
+		{
+			next[e] = -1;
+			
+			int last = find (keys[e], hashes[e]);
+			if (last < 0)
+			{
+				insertSlot (e);
+				continue;
+			}
+			
+			while (next[last] >= 0)
+				last = next[last];
+			next[last] = e;
+		}
+	}
+	
+	private int hash (String key)
+	{
+		int h = 0;
+		int len = key.length ();
+		for (int i = 0; i < len; i++)
+		{
+			char c = key.charAt (i);
+			if (ignoreCase && c >= 'A' && c <= 'Z')
+				c += 'a' - 'A';
+			h = 31 * h + c;
+		}
+		return h ^ (h >>> 16);
+	}
+	
+	private boolean equals (String a, String b)
+	{
+		if (a == b)
+			return true;
+		
+		int len = a.length ();
+		if (b.length () != len)
+			return false;
+		if (!ignoreCase)
+			return a.equals (b);
+		
+		for (int i = 0; i < len; i++)
+		{
+			char x = a.charAt (i);
+			char y = b.charAt (i);
+			if (x == y)
+				continue;
+			if (x >= 'A' && x <= 'Z')
+				x += 'a' - 'A';
+			if (y >= 'A' && y <= 'Z')
+				y += 'a' - 'A';
+			if (x != y)
+				return false;
+		}
+		return true;
+	}
+}
@@ -41,6 +41,42 @@ public class StringUtils
 		return output.toString ();
 	}
 	
+	public static String jsonEscape (String input)
+	{
+		StringBuffer output = new StringBuffer ();
+		
+		int len = input.length ();
+		for (int i = 0; i < len; i++)
+		{
+			char c = input.charAt (i);
+			switch (c)
+			{
+				case '"':
+					output.append ("\\\"");
+					break;
+				case '\\':
+					output.append ("\\\\");
+					break;
+				default:
+					if (c < 0x20)
+					{
+						String hex = Integer.toHexString (c);
+						output.append ("\\u00");
+						if (hex.length () < 2)
+							output.append ('0');
+						output.append (hex);
+					}
+					else
+					{
+						output.append (c);
+					}
+					break;
+			}
+		}
+		
+		return output.toString ();
+	}
+	
 	public static void locate (String str, int pos, int[] out)
 	{
 		if (out.length != 2)
@@ -168,54 +204,241 @@ public class StringUtils
 		return ret;
 	}
 	
-	private static boolean isHex (char x)
+	private static int hexValue (char x)
 	{
 		if (x >= '0' && x <= '9')
-			return true;
+			return x - '0';
 		if (x >= 'a' && x <= 'f')
-			return true;
+			return x - 'a' + 10;
 		if (x >= 'A' && x <= 'F')
-			return true;
-		return false;
+			return x - 'A' + 10;
+		return -1;
 	}
 	
+	/**
+	 * Decodes a URL-encoded string, such as a query string parameter, with
+	 * {@code %XX} escapes taken as bytes of UTF-8. Characters that are not
+	 * escaped are kept as they are.
+	 * 
+	 * @param input	The encoded string.
+	 * @return		The decoded string, which is {@code input} itself if there is nothing to decode.
+	 */
 	public static String urlUnquote (String input)
 	{
-		StringBuffer output = new StringBuffer ();
 		int inputLength = input.length ();
 		
-		for (int i = 0; i < inputLength;)
+		int first = 0;
+		while (first < inputLength)
+		{
+			char c = input.charAt (first);
+			if (c == '+' || c == '%' || c > 0x7f)
+				break;
+			first++;
+		}
+		
+		if (first == inputLength)
+			return input;
+		
+		// at most one byte per character, except for characters above U+007F
+		byte[] bytes = new byte[inputLength];
+		int n = 0;
+		
+		for (int i = 0; i < first; i++)
+			bytes[n++] = (byte) input.charAt (i);
+		
+		for (int i = first; i < inputLength;)
 		{
 			char c = input.charAt (i++);
-			boolean special = false;
 			
-			switch (c)
+			if (c == '+')
 			{
-				case '+':
-					
-					output.append (' ');
-					special = true;
-					break;
-					
-				case '%':
-					
-					if (i + 1 >= inputLength)
-						break;
-					char cHigh = input.charAt (i), cLow = input.charAt (i + 1);
-					if (!(isHex (cHigh) && isHex (cLow)))
-						break;
-					
-					output.append ((char) Integer.parseInt (cHigh + "" + cLow, 16));
-					i += 2;
-					special = true;
-					
-					break;
+				bytes[n++] = ' ';
+			}
+			else if (c == '%' && i + 1 < inputLength && hexValue (input.charAt (i)) >= 0 && hexValue (input.charAt (i + 1)) >= 0)
+			{
+				bytes[n++] = (byte) ((hexValue (input.charAt (i)) << 4) | hexValue (input.charAt (i + 1)));
+				i += 2;
+			}
+			else if (c < 0x80)
+			{
+				bytes[n++] = (byte) c;
+			}
+			else
+			{
+				int cp = c;
+				if (c >= 0xd800 && c <= 0xdbff && i < inputLength)
+				{
+					char low = input.charAt (i);
+					if (low >= 0xdc00 && low <= 0xdfff)
+					{
+						cp = 0x10000 + ((c - 0xd800) << 10) + (low - 0xdc00);
+						i++;
+					}
+				}
+				
+				if (n + 4 > bytes.length)
+				{
+					byte[] newBytes = new byte[bytes.length + inputLength + 4];
+					System.arraycopy (bytes, 0, newBytes, 0, n);
+					bytes = newBytes;
+				}
+				n = encodeUTF8 (cp, bytes, n);
+			}
+		}
+		
+		return decodeUTF8 (bytes, 0, n);
+	}
+	
+	/**
+	 * Decodes a URL-encoded range of bytes, such as a form post, as UTF-8.
+	 * {@code %XX} escapes are taken as bytes, and so are unescaped bytes.
+	 * 
+	 * @param b		The encoded bytes.
+	 * @param off	The offset of the first byte.
+	 * @param len	The number of bytes.
+	 * @return		The decoded string.
+	 */
+	public static String urlUnquote (byte[] b, int off, int len)
+	{
+		int end = off + len;
+		
+		int first = off;
+		while (first < end)
+		{
+			byte c = b[first];
+			if (c == '+' || c == '%' || c < 0)
+				break;
+			first++;
+		}
+		
+		// plain ASCII is its own decoding
+		if (first == end)
+		{
+			char[] chars = new char[len];
+			for (int i = 0; i < len; i++)
+				chars[i] = (char) b[off + i];
+			return new String (chars);
+		}
+		
+		// decoding never makes the bytes longer
+		byte[] bytes = new byte[len];
+		int n = first - off;
+		System.arraycopy (b, off, bytes, 0, n);
+		
+		for (int i = first; i < end;)
+		{
+			byte c = b[i++];
+			
+			if (c == '+')
+			{
+				bytes[n++] = ' ';
+			}
+			else if (c == '%' && i + 1 < end && hexValue ((char) b[i]) >= 0 && hexValue ((char) b[i + 1]) >= 0)
+			{
+				bytes[n++] = (byte) ((hexValue ((char) b[i]) << 4) | hexValue ((char) b[i + 1]));
+				i += 2;
+			}
+			else
+			{
+				bytes[n++] = c;
+			}
+		}
+		
+		return decodeUTF8 (bytes, 0, n);
+	}
+	
+	private static int encodeUTF8 (int cp, byte[] out, int n)
+	{
+		if (cp < 0x800)
+		{
+			out[n++] = (byte) (0xc0 | (cp >> 6));
+		}
+		else
+		{
+			if (cp < 0x10000)
+			{
+				out[n++] = (byte) (0xe0 | (cp >> 12));
+			}
+			else
+			{
+				out[n++] = (byte) (0xf0 | (cp >> 18));
+				out[n++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+			}
+			out[n++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+		}
+		out[n++] = (byte) (0x80 | (cp & 0x3f));
+		return n;
+	}
+	
+	/**
+	 * Decodes UTF-8, replacing malformed sequences with U+FFFD.
+	 * 
+	 * @param b		The bytes to decode.
+	 * @param off	The offset of the first byte.
+	 * @param len	The number of bytes.
+	 * @return		The decoded string.
+	 */
+	public static String decodeUTF8 (byte[] b, int off, int len)
+	{
+		char[] out = new char[len];
+		int n = 0;
+		int end = off + len;
+		
+		for (int i = off; i < end;)
+		{
+			int c = b[i++] & 0xff;
+			if (c < 0x80)
+			{
+				out[n++] = (char) c;
+				continue;
 			}
 			
-			if (!special)
-				output.append (c);
+			int need, min;
+			if ((c & 0xe0) == 0xc0)
+			{
+				need = 1;
+				min = 0x80;
+				c &= 0x1f;
+			}
+			else if ((c & 0xf0) == 0xe0)
+			{
+				need = 2;
+				min = 0x800;
+				c &= 0x0f;
+			}
+			else if ((c & 0xf8) == 0xf0)
+			{
+				need = 3;
+				min = 0x10000;
+				c &= 0x07;
+			}
+			else
+			{
+				out[n++] = '\ufffd';
+				continue;
+			}
+			
+			int j = 0;
+			while (j < need && i + j < end && (b[i + j] & 0xc0) == 0x80)
+				c = (c << 6) | (b[i + j++] & 0x3f);
+			i += j;
+			
+			if (j < need || c < min || c > 0x10ffff || (c >= 0xd800 && c <= 0xdfff))
+			{
+				out[n++] = '\ufffd';
+			}
+			else if (c >= 0x10000)
+			{
+				c -= 0x10000;
+				out[n++] = (char) (0xd800 + (c >> 10));
+				out[n++] = (char) (0xdc00 + (c & 0x3ff));
+			}
+			else
+			{
+				out[n++] = (char) c;
+			}
 		}
 		
-		return output.toString ();
+		return new String (out, 0, n);
 	}
 }
@@ -7,7 +7,10 @@ import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Vector;
 import org.apache.commons.codec.binary.Base64;
+import org.team4159.boths.HeaderNames;
+import org.team4159.boths.Method;
 import org.team4159.boths.Request;
 import org.team4159.boths.Response;
 import org.team4159.boths.Route;
@@ -29,11 +32,16 @@ public abstract class BaseWebSocketView extends View
 		final static byte[] EMPTY_MASKING_KEY = { 0, 0, 0, 0 }; 
 		
 		final DataInputStream dis;
+		final byte[] scratch = new byte[512];
+		boolean expectMask = true;
+		SessionStatistics stats;
 		
 		boolean fin, rsv1, rsv2, rsv3;
 		int opcode;
 		boolean mask;
 		long payloadLength;
+		long payloadRemaining;
+		int maskPosition;
 		final byte[] maskingKey = new byte[4];
 		
 		FragmentProcessor (InputStream is)
@@ -68,17 +76,37 @@ public abstract class BaseWebSocketView extends View
 				dis.readFully (maskingKey);
 			else
 				System.arraycopy (EMPTY_MASKING_KEY, 0, maskingKey, 0, 4);
+			
+			payloadRemaining = payloadLength;
+			maskPosition = 0;
+			
+			if (stats != null)
+				stats.recordReceivedBytes (2 + (preLength == 126 ? 2 : preLength == 127 ? 8 : 0) + (mask ? 4 : 0));
 		}
-
-		void readPayload (OutputStream os) throws IOException
+		
+		/**
+		 * Reads and unmasks up to {@code len} bytes of the current fragment's payload.
+		 * Returns 0 only if the payload of the current fragment has been exhausted.
+		 */
+		int readPayload (byte[] buf, int off, int len) throws IOException
 		{
-			for (int i = 0; i < payloadLength; i++)
-			{
-				int k = dis.read ();
-				if (k < 0)
-					throw new EOFException ("unexpected end of payload");
-				os.write (k ^ (maskingKey[i % 4] & 0xff));
-			}
+			if (len > payloadRemaining)
+				len = (int) payloadRemaining;
+			if (len == 0)
+				return 0;
+			
+			int n = dis.read (buf, off, len);
+			if (n < 0)
+				throw new EOFException ("unexpected end of payload");
+			
+			for (int i = 0; i < n; i++)
+				buf[off + i] ^= maskingKey[(maskPosition + i) & 3];
+			
+			maskPosition += n;
+			payloadRemaining -= n;
+			if (stats != null)
+				stats.recordReceivedBytes (n);
+			return n;
 		}
 	}
 	
@@ -96,6 +124,12 @@ public abstract class BaseWebSocketView extends View
 		 * The data payload of the message.
 		 */
 		public final byte[] data;
+		
+		/**
+		 * The complete unmasked frame of this message, encoded once on first
+		 * send and then reused for every connection it is sent to.
+		 */
+		byte[] frame;
 
 		/**
 		 * Constructs a new message.
@@ -110,6 +144,179 @@ public abstract class BaseWebSocketView extends View
 		}
 	}
 	
+	/**
+	 * An {@link InputStream} over the payload of a single incoming WebSocket message.
+	 * 
+	 * <p>
+	 * Fragments are read from the socket only as the payload is consumed, so a message
+	 * of any size may be processed using a fixed amount of memory. The stream must be
+	 * read to the end or closed before the next message can be received.
+	 * </p>
+	 */
+	public static class MessageInputStream extends InputStream
+	{
+		/**
+		 * The opcode of the message.
+		 */
+		public final int opcode;
+		
+		private final BaseWebSocketView view;
+		private final FragmentProcessor fp;
+		private final byte[] single = new byte[1];
+		private boolean finished;
+		
+		MessageInputStream (BaseWebSocketView view, FragmentProcessor fp)
+		{
+			this.view = view;
+			this.fp = fp;
+			this.opcode = fp.opcode;
+		}
+		
+		public int read () throws IOException
+		{
+			return read (single, 0, 1) == -1 ? -1 : single[0] & 0xff;
+		}
+		
+		public int read (byte[] buf, int off, int len) throws IOException
+		{
+			if (len == 0)
+				return 0;
+			
+			while (fp.payloadRemaining == 0)
+			{
+				if (fp.fin)
+				{
+					finished = true;
+					return -1;
+				}
+				
+				fp.readHeader ();
+				view.verifyFragment (fp, false);
+			}
+			
+			return fp.readPayload (buf, off, len);
+		}
+		
+		public int available () throws IOException
+		{
+			return (int) Math.min (fp.payloadRemaining, fp.dis.available ());
+		}
+		
+		/**
+		 * Discards the remainder of the message.
+		 */
+		public void close () throws IOException
+		{
+			while (!finished)
+				read (fp.scratch, 0, fp.scratch.length);
+		}
+	}
+	
+	/**
+	 * An {@link OutputStream} that sends a single WebSocket message as a sequence
+	 * of fragments.
+	 * 
+	 * <p>
+	 * Data is collected in a fixed-size buffer; each time the buffer fills, it is sent
+	 * to the client as a fragment. The final fragment is sent when the stream is closed.
+	 * No other data message may be sent on the same socket until then.
+	 * </p>
+	 */
+	public static class MessageOutputStream extends OutputStream
+	{
+		private final DataOutputStream dos;
+		private final byte[] buf;
+		private final SessionStatistics stats;
+		private int count;
+		private int opcode;
+		private boolean closed;
+		
+		MessageOutputStream (int opcode, DataOutputStream dos, byte[] buf, SessionStatistics stats)
+		{
+			if (isControlOpcode (opcode) || opcode <= 0 || opcode > 0xf)
+				throw new IllegalArgumentException ("opcode must be a non-control opcode");
+			
+			this.opcode = opcode;
+			this.dos = dos;
+			this.buf = buf;
+			this.stats = stats;
+		}
+		
+		public void write (int b) throws IOException
+		{
+			if (count == buf.length)
+				sendFragment (false);
+			buf[count++] = (byte) b;
+		}
+		
+		public void write (byte[] b, int off, int len) throws IOException
+		{
+			while (len > 0)
+			{
+				if (count == buf.length)
+					sendFragment (false);
+				
+				int n = Math.min (len, buf.length - count);
+				System.arraycopy (b, off, buf, count, n);
+				count += n;
+				off += n;
+				len -= n;
+			}
+		}
+		
+		/**
+		 * Reads the given stream to its end, sending its contents as part of this message.
+		 * 
+		 * @param is	The {@link InputStream} to read from.
+		 * @throws IOException
+		 */
+		public void writeFrom (InputStream is) throws IOException
+		{
+			for (;;)
+			{
+				if (count == buf.length)
+					sendFragment (false);
+				
+				int n = is.read (buf, count, buf.length - count);
+				if (n < 0)
+					break;
+				count += n;
+			}
+		}
+		
+		/**
+		 * Sends the final fragment of the message.
+		 */
+		public void close () throws IOException
+		{
+			if (closed)
+				return;
+			closed = true;
+			sendFragment (true);
+		}
+		
+		byte[] getBuffer ()
+		{
+			return buf;
+		}
+		
+		private void sendFragment (boolean fin) throws IOException
+		{
+			if (closed && !fin)
+				throw new IOException ("message already finished");
+			
+			int headerLength = writeFragmentHeader (dos, fin, opcode, count);
+			dos.write (buf, 0, count);
+			dos.flush ();
+			
+			if (stats != null)
+				stats.recordSent (headerLength + count, fin ? 1 : 0);
+			
+			opcode = OPCODE_CONTINUE;
+			count = 0;
+		}
+	}
+	
 	/**
 	 * Maximum payload size per fragment.
 	 */
@@ -120,6 +327,20 @@ public abstract class BaseWebSocketView extends View
 	 */
 	protected int maximumMessageSize = 0x10000;
 	
+	/**
+	 * Size of the fragments sent when a message is streamed.
+	 */
+	protected int fragmentSize = 0x1000;
+	
+	/**
+	 * Interval between PINGs sent to measure the round-trip time of each connection,
+	 * or 0 to send none. Disabled by default; a {@link WebSocketStatisticsView}
+	 * reporting on this view enables it.
+	 */
+	protected int pingInterval = 0;
+	
+	private final Vector sessions = new Vector ();
+	
 	/**
 	 * Sets the maximum payload size per fragment.
 	 * @param sz	Maximum size in bytes.
@@ -134,16 +355,79 @@ public abstract class BaseWebSocketView extends View
 	 */
 	public void setMaximumMessageSize (int sz) { maximumMessageSize = sz; }
 	
+	/**
+	 * Sets the size of the fragments sent when a message is streamed.
+	 * @param sz	Fragment size in bytes.
+	 * @see #fragmentSize
+	 */
+	public void setFragmentSize (int sz)
+	{
+		if (sz <= 0)
+			throw new IllegalArgumentException ("fragment size must be positive");
+		fragmentSize = sz;
+	}
+	
+	/**
+	 * Sets the interval between PINGs sent to measure the round-trip time of each connection.
+	 * No PINGs are sent by default.
+	 * @param ms	Interval in milliseconds, or 0 to disable.
+	 * @see #pingInterval
+	 */
+	public void setPingInterval (int ms)
+	{
+		if (ms < 0)
+			throw new IllegalArgumentException ("ping interval must not be negative");
+		pingInterval = ms;
+	}
+	
+	/**
+	 * Gets the statistics of every connection currently open on this view.
+	 * 
+	 * @return	An array of {@link SessionStatistics}, one per connection.
+	 */
+	public SessionStatistics[] getSessionStatistics ()
+	{
+		synchronized (sessions)
+		{
+			SessionStatistics[] ret = new SessionStatistics[sessions.size ()];
+			sessions.copyInto (ret);
+			return ret;
+		}
+	}
+	
+	SessionStatistics openSession (Request req, FragmentProcessor fp)
+	{
+		SessionStatistics stats = new SessionStatistics (req.path);
+		fp.stats = stats;
+		sessions.addElement (stats);
+		return stats;
+	}
+	
+	void closeSession (SessionStatistics stats)
+	{
+		sessions.removeElement (stats);
+	}
+	
 	public Response getResponse (Request req, Route route)
 	{
 		if (!verifyRequest (req))
 		{
 			Response res = Response.createErrorResponse (400);
-			res.setHeader ("Sec-WebSocket-Version", "8");
+			res.setHeader (HeaderNames.SEC_WEBSOCKET_VERSION, "8");
 			return res;
 		}
 		
-		String webSocketKey = req.getHeader ("Sec-WebSocket-Key");
+		Response res = new Response (null, null, true);
+		res.setStatusCode (101);
+		res.deleteHeader (HeaderNames.CONTENT_TYPE);
+		res.setHeader (HeaderNames.UPGRADE, "websocket");
+		res.setHeader (HeaderNames.CONNECTION, "Upgrade");
+		res.setHeader (HeaderNames.SEC_WEBSOCKET_ACCEPT, computeAcceptKey (req.getHeader (HeaderNames.SEC_WEBSOCKET_KEY)));
+		return res;
+	}
+	
+	static String computeAcceptKey (String webSocketKey)
+	{
 		String webSocketKeyConstant = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
 		String hashInput = webSocketKey + webSocketKeyConstant;
 		
@@ -152,25 +436,19 @@ public abstract class BaseWebSocketView extends View
 		byte[] hasherOutput = new byte[20];
 		hasher.digest (hasherOutput);
 		
-		Response res = new Response ();
-		res.setStatusCode (101);
-		res.deleteHeader ("Content-Type");
-		res.setHeader ("Upgrade", "websocket");
-		res.setHeader ("Connection", "Upgrade");
-		res.setHeader ("Sec-WebSocket-Accept", new String (Base64.encodeBase64 (hasherOutput)));
-		return res;
+		return new String (Base64.encodeBase64 (hasherOutput));
 	}
 	
 	private boolean verifyRequest (Request req)
 	{
-		if (!req.method.equals ("GET"))
+		if (req.getMethod () != Method.GET)
 			return false;
 		
-		String upgrade = req.getHeader ("Upgrade");
+		String upgrade = req.getHeader (HeaderNames.UPGRADE);
 		if (upgrade == null || !upgrade.toLowerCase ().equals ("websocket"))
 			return false;
 		
-		String connection = req.getHeader ("Connection");
+		String connection = req.getHeader (HeaderNames.CONNECTION);
 		if (connection == null)
 			return false;
 		
@@ -188,13 +466,13 @@ public abstract class BaseWebSocketView extends View
 		if (!correctConnection)
 			return false;
 		
-		String webSocketKey = req.getHeader ("Sec-WebSocket-Key");
+		String webSocketKey = req.getHeader (HeaderNames.SEC_WEBSOCKET_KEY);
 		if (webSocketKey == null)
 			return false;
 		if (webSocketKey.length () != 24)
 			return false;
 		
-		String webSocketVersionString = req.getHeader ("Sec-WebSocket-Version");
+		String webSocketVersionString = req.getHeader (HeaderNames.SEC_WEBSOCKET_VERSION);
 		if (webSocketVersionString == null)
 			return false;
 		
@@ -214,43 +492,108 @@ public abstract class BaseWebSocketView extends View
 	{
 		baos.reset ();
 		
-		int currentOpcode = 0;
+		MessageInputStream mis = receiveMessageStreamFromSocket (fp);
+		byte[] buf = fp.scratch;
 		
-		do {
-			fp.readHeader ();
-			
-			if (!fp.mask)
-				throw new IOException ("unmasked fragment");
-			
-			if (currentOpcode == 0)
-			{
-				if (fp.opcode != 0)
-					currentOpcode = fp.opcode;
-				else
-					throw new IOException ("first fragment of message is continuation fragment");
-				if (isControlOpcode (fp.opcode) && !fp.fin)
-					throw new IOException ("fragmented control packet");
-			}
-			else
-			{
-				if (fp.opcode != 0)
-					throw new IOException ("fragment with opcode after first fragment");
-			}
-			
-			if (fp.payloadLength > maximumPayloadSize)
-				throw new IOException ("payload too large (" +
-					fp.payloadLength + " > " + maximumPayloadSize +
-				")");
-			if (baos.size () + fp.payloadLength > maximumMessageSize)
+		int n;
+		while ((n = mis.read (buf, 0, buf.length)) != -1)
+		{
+			if (baos.size () + n > maximumMessageSize)
 				throw new IOException ("message too large");
-			
-			fp.readPayload (baos);
-		} while (!fp.fin);
+			baos.write (buf, 0, n);
+		}
+		
+		return new Message (mis.opcode, baos.toByteArray ());
+	}
+	
+	MessageInputStream receiveMessageStreamFromSocket (FragmentProcessor fp) throws IOException
+	{
+		fp.readHeader ();
+		verifyFragment (fp, true);
+		if (fp.stats != null)
+			fp.stats.recordReceivedMessage ();
+		return new MessageInputStream (this, fp);
+	}
+	
+	void verifyFragment (FragmentProcessor fp, boolean first) throws IOException
+	{
+		if (fp.mask != fp.expectMask)
+			throw new IOException (fp.expectMask ? "unmasked fragment" : "masked fragment");
+		
+		if (first)
+		{
+			if (fp.opcode == 0)
+				throw new IOException ("first fragment of message is continuation fragment");
+			if (isControlOpcode (fp.opcode) && !fp.fin)
+				throw new IOException ("fragmented control packet");
+		}
+		else
+		{
+			if (fp.opcode != 0)
+				throw new IOException ("fragment with opcode after first fragment");
+		}
 		
-		return new Message (currentOpcode, baos.toByteArray ());
+		if (fp.payloadLength > maximumPayloadSize)
+			throw new IOException ("payload too large (" +
+				fp.payloadLength + " > " + maximumPayloadSize +
+			")");
 	}
 
 	void sendMessageToSocket (Message msg, DataOutputStream dos) throws IOException
+	{
+		sendMessageToSocket (msg, dos, null);
+	}
+	
+	void sendMessageToSocket (Message msg, DataOutputStream dos, SessionStatistics stats) throws IOException
+	{
+		byte[] frame = msg.frame;
+		if (frame == null)
+		{
+			verifyMessage (msg);
+			
+			int len = msg.data != null ? msg.data.length : 0;
+			ByteArrayOutputStream baos = new ByteArrayOutputStream (len + 10);
+			DataOutputStream fdos = new DataOutputStream (baos);
+			
+			writeFragmentHeader (fdos, true, msg.opcode, len);
+			if (msg.data != null)
+				fdos.write (msg.data);
+			
+			msg.frame = frame = baos.toByteArray ();
+		}
+		
+		dos.write (frame);
+		dos.flush ();
+		
+		if (stats != null)
+			stats.recordSent (frame.length, 1);
+	}
+	
+	/**
+	 * Sends a PING carrying the current time if one is due, so that the
+	 * round-trip time can be measured when the client answers it.
+	 */
+	void sendPingIfDue (DataOutputStream dos, SessionStatistics stats) throws IOException
+	{
+		long now = System.currentTimeMillis ();
+		if (stats.isPingDue (now, pingInterval))
+			sendMessageToSocket (new Message (OPCODE_PING, stats.createPingPayload (now)), dos, stats);
+	}
+	
+	void sendMaskedMessageToSocket (Message msg, DataOutputStream dos, byte[] maskingKey) throws IOException
+	{
+		verifyMessage (msg);
+		
+		int len = msg.data != null ? msg.data.length : 0;
+		writeFragmentHeader (dos, true, msg.opcode, len, true);
+		dos.write (maskingKey, 0, 4);
+		
+		for (int i = 0; i < len; i++)
+			dos.write (msg.data[i] ^ maskingKey[i & 3]);
+		dos.flush ();
+	}
+	
+	private static void verifyMessage (Message msg) throws IOException
 	{
 		int len = msg.data != null ? msg.data.length : 0;
 		
@@ -258,30 +601,45 @@ public abstract class BaseWebSocketView extends View
 			throw new IOException ("payload for control packet too large");
 		if (msg.opcode <= 0 || msg.opcode > 0xf)
 			throw new IOException ("opcode out of range 1-15 inclusive");
+	}
+	
+	MessageOutputStream openMessageStreamToSocket (int opcode, DataOutputStream dos, byte[] buf, SessionStatistics stats)
+	{
+		if (buf == null || buf.length != fragmentSize)
+			buf = new byte[fragmentSize];
+		return new MessageOutputStream (opcode, dos, buf, stats);
+	}
+	
+	static int writeFragmentHeader (DataOutputStream dos, boolean fin, int opcode, int len) throws IOException
+	{
+		return writeFragmentHeader (dos, fin, opcode, len, false);
+	}
+	
+	static int writeFragmentHeader (DataOutputStream dos, boolean fin, int opcode, int len, boolean mask) throws IOException
+	{
+		dos.write ((fin ? 0x80 : 0) | opcode);
 		
-		dos.write (0x80 | msg.opcode);
-		
+		int maskBit = mask ? 0x80 : 0;
 		if (len <= 125)
 		{
-			dos.write (len);
+			dos.write (maskBit | len);
+			return 2;
 		}
 		else if (len <= 0xffff)
 		{
-			dos.write (126);
+			dos.write (maskBit | 126);
 			dos.writeShort (len);
+			return 4;
 		}
 		else
 		{
-			dos.write (127);
+			dos.write (maskBit | 127);
 			dos.writeLong (len);
+			return 10;
 		}
-		
-		if (msg.data != null)
-			dos.write (msg.data);
-		dos.flush ();
 	}
 	
-	private static boolean isControlOpcode (int opcode)
+	static boolean isControlOpcode (int opcode)
 	{
 		return (opcode & (1 << 3)) != 0;
 	}
@@ -40,6 +40,10 @@ public class BidirectionalWebSocketView extends BaseWebSocketView
 		private final ByteArrayOutputStream ibaos;
 		private final DataOutputStream dos;
 		private final FragmentProcessor fp;
+		private final SessionStatistics stats;
+		
+		private MessageInputStream currentInputStream;
+		private byte[] fragmentBuffer;
 		
 		private boolean open = true;
 		
@@ -52,8 +56,16 @@ public class BidirectionalWebSocketView extends BaseWebSocketView
 			this.ibaos = new ByteArrayOutputStream ();
 			this.dos = new DataOutputStream (os);
 			this.fp = new FragmentProcessor (is);
+			this.stats = view.openSession (req, fp);
 		}
 		
+		/**
+		 * Gets the statistics of this connection.
+		 * 
+		 * @return The {@link SessionStatistics} of this connection.
+		 */
+		public SessionStatistics getStatistics () { return stats; }
+		
 		/**
 		 * Checks whether the WebSocket connection is still open. The handler
 		 * must return when this method returns false.
@@ -86,8 +98,8 @@ public class BidirectionalWebSocketView extends BaseWebSocketView
 		 * Returns the next message the client sends. If {@link #messageAvailable()}
 		 * returns false, this method may block for a substantial amount of time.
 		 * 
-		 * This method will automatically respond to PING packets and will ignore
-		 * PONG packets.
+		 * This method will automatically respond to PING packets and will use
+		 * PONG packets only to measure the round-trip time.
 		 * 
 		 * @return The next message.
 		 */
@@ -98,6 +110,7 @@ public class BidirectionalWebSocketView extends BaseWebSocketView
 			while (msg == null)
 			{
 				try {
+					finishCurrentInputStream ();
 					msg = view.receiveMessageFromSocket (fp, ibaos);
 				} catch (IOException e) {
 					e.printStackTrace ();
@@ -110,10 +123,11 @@ public class BidirectionalWebSocketView extends BaseWebSocketView
 						open = false;
 						break;
 					case OPCODE_PING:
-						sendMessage (new Message (0xa, null));
+						sendMessage (new Message (OPCODE_PONG, msg.data));
 						msg = null;
 						break;
 					case OPCODE_PONG:
+						stats.recordPong (msg.data);
 						msg = null;
 						break;
 				}
@@ -122,6 +136,100 @@ public class BidirectionalWebSocketView extends BaseWebSocketView
 			return msg;
 		}
 		
+		/**
+		 * Returns the next message the client sends as a stream, so that its payload
+		 * can be processed as it arrives instead of being buffered in memory.
+		 * The stream must be consumed or closed before the next message is requested;
+		 * if it is not, the rest of its payload is discarded at that time.
+		 * 
+		 * Like {@link #nextMessage()}, this method responds to PING packets
+		 * and ignores PONG packets.
+		 * 
+		 * @return The payload of the next message.
+		 */
+		public MessageInputStream nextMessageStream ()
+		{
+			try {
+				for (;;)
+				{
+					finishCurrentInputStream ();
+					MessageInputStream mis = view.receiveMessageStreamFromSocket (fp);
+					
+					switch (mis.opcode)
+					{
+						case OPCODE_CLOSE:
+							open = false;
+							break;
+						case OPCODE_PING:
+							sendMessage (new Message (OPCODE_PONG, readControlPayload (mis)));
+							continue;
+						case OPCODE_PONG:
+							stats.recordPong (readControlPayload (mis));
+							continue;
+					}
+					
+					return currentInputStream = mis;
+				}
+			} catch (IOException e) {
+				e.printStackTrace ();
+				throw new RuntimeException (e.toString ());
+			}
+		}
+		
+		private byte[] readControlPayload (MessageInputStream mis) throws IOException
+		{
+			ibaos.reset ();
+			int k;
+			while ((k = mis.read ()) != -1)
+				ibaos.write (k);
+			return ibaos.toByteArray ();
+		}
+		
+		private void finishCurrentInputStream () throws IOException
+		{
+			if (currentInputStream != null)
+			{
+				currentInputStream.close ();
+				currentInputStream = null;
+			}
+		}
+		
+		/**
+		 * Begins sending a message whose payload is written to the returned stream.
+		 * The message is sent as a sequence of fragments as data is written, and
+		 * is finished when the stream is closed. No other message may be sent
+		 * until then.
+		 * 
+		 * @param opcode	{@link BaseWebSocketView#OPCODE_TEXT} or {@link BaseWebSocketView#OPCODE_BINARY}.
+		 * @return			The stream to write the payload to.
+		 */
+		public MessageOutputStream openMessageStream (int opcode)
+		{
+			MessageOutputStream mos = view.openMessageStreamToSocket (opcode, dos, fragmentBuffer, stats);
+			fragmentBuffer = mos.getBuffer ();
+			return mos;
+		}
+		
+		/**
+		 * Sends a message, reading its payload from the given stream until its end.
+		 * The payload is never held in memory entirely; it is sent as a sequence
+		 * of fragments instead.
+		 * 
+		 * @param opcode	{@link BaseWebSocketView#OPCODE_TEXT} or {@link BaseWebSocketView#OPCODE_BINARY}.
+		 * @param is		The stream to read the payload from.
+		 */
+		public void sendMessage (int opcode, InputStream is)
+		{
+			try {
+				MessageOutputStream mos = openMessageStream (opcode);
+				mos.writeFrom (is);
+				mos.close ();
+			} catch (IOException e) {
+				e.printStackTrace ();
+				throw new RuntimeException (e.toString ());
+			}
+		}
+		
 		/**
 		 * Sends a message with binary data.
 		 * 
@@ -150,7 +258,28 @@ public class BidirectionalWebSocketView extends BaseWebSocketView
 		public void sendMessage (BaseWebSocketView.Message msg)
 		{
 			try {
-				view.sendMessageToSocket (msg, dos);
+				if (!isControlOpcode (msg.opcode))
+					view.sendPingIfDue (dos, stats);
+				view.sendMessageToSocket (msg, dos, stats);
+			} catch (IOException e) {
+				e.printStackTrace ();
+				throw new RuntimeException (e.toString ());
+			}
+		}
+		
+		/**
+		 * Sends a PING carrying the current time. The round-trip time is
+		 * measured when the answering PONG is received by {@link #nextMessage()}
+		 * or {@link #nextMessageStream()}.
+		 * 
+		 * PINGs are also sent automatically along with other messages every
+		 * {@link BaseWebSocketView#setPingInterval(int) ping interval}, if one is set.
+		 */
+		public void ping ()
+		{
+			try {
+				long now = System.currentTimeMillis ();
+				view.sendMessageToSocket (new Message (OPCODE_PING, stats.createPingPayload (now)), dos, stats);
 			} catch (IOException e) {
 				e.printStackTrace ();
 				throw new RuntimeException (e.toString ());
@@ -194,7 +323,11 @@ public class BidirectionalWebSocketView extends BaseWebSocketView
 			return;
 		
 		BidirectionalWebSocket sock = new BidirectionalWebSocket (this, req, is, os);
-		handleBidirectionalWebSocket (sock);
+		try {
+			handleBidirectionalWebSocket (sock);
+		} finally {
+			closeSession (sock.stats);
+		}
 	}
 
 	/**
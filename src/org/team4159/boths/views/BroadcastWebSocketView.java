@@ -27,30 +27,89 @@ public class BroadcastWebSocketView extends BaseWebSocketView
 		Thread thread = Thread.currentThread ();
 		Queue queue = new Queue ();
 		DataOutputStream dos = new DataOutputStream (os);
+		SessionStatistics stats = openSession (req, fp);
+		stats.queues = new Queue[] { queue };
 		
-		threads.put (thread, queue);
+		synchronized (threads)
+		{
+			Message[] initialMessages = getInitialMessages ();
+			if (initialMessages != null)
+				for (int i = 0; i < initialMessages.length; i++)
+					queue.add (initialMessages[i], System.currentTimeMillis ());
+			threads.put (thread, queue);
+		}
 		
 		try {
 			for (;;)
 			{
 				if (is.available () > 0)
 				{
-					switch (receiveMessageFromSocket (fp, baos).opcode)
+					Message msg = receiveMessageFromSocket (fp, baos);
+					switch (msg.opcode)
 					{
 						case OPCODE_CLOSE:
 							return;
 						case OPCODE_PING:
-							sendMessageToSocket (new Message (0xa, null), dos);
+							sendMessageToSocket (new Message (OPCODE_PONG, msg.data), dos, stats);
+							break;
+						case OPCODE_PONG:
+							stats.recordPong (msg.data);
+							break;
 					}
 				}
 				
+				sendPingIfDue (dos, stats);
+				
 				Message msg = (Message) queue.poll ();
 				if (msg != null)
-					sendMessageToSocket (msg, dos);
+					sendMessageToSocket (msg, dos, stats);
 			}
 		} finally {
 			threads.remove (thread);
+			closeSession (stats);
+		}
+	}
+	
+	/**
+	 * Returns the messages to send to a client before any broadcasted message
+	 * when it connects. This is called while no message can be broadcast, so
+	 * nothing broadcast afterwards will be missed by the client.
+	 * 
+	 * The default implementation returns null.
+	 * 
+	 * @return	The messages to send first, or null if there are none.
+	 */
+	protected Message[] getInitialMessages ()
+	{
+		return null;
+	}
+	
+	/**
+	 * Gets the number of clients currently connected to this view.
+	 * 
+	 * @return	The number of connections.
+	 */
+	public int getConnectionCount ()
+	{
+		return threads.size ();
+	}
+	
+	/**
+	 * Gets the number of messages waiting to be sent to the client
+	 * that is furthest behind.
+	 * 
+	 * @return	The length of the longest queue of unsent messages.
+	 */
+	public int getLongestQueueLength ()
+	{
+		int longest = 0;
+		synchronized (threads)
+		{
+			Enumeration e = threads.elements ();
+			while (e.hasMoreElements ())
+				longest = Math.max (longest, ((Queue) e.nextElement ()).size ());
 		}
+		return longest;
 	}
 	
 	/**
@@ -60,11 +119,12 @@ public class BroadcastWebSocketView extends BaseWebSocketView
 	 */
 	public void sendMessage (BaseWebSocketView.Message msg)
 	{
+		long now = System.currentTimeMillis ();
 		synchronized (threads)
 		{
 			Enumeration e = threads.elements ();
 			while (e.hasMoreElements ())
-				((Queue) e.nextElement ()).add (msg);
+				((Queue) e.nextElement ()).add (msg, now);
 		}
 	}
 	
@@ -82,7 +82,10 @@ public class DirectoryView extends View
 		if (is == null)
 			return Response.createErrorResponse (404);
 		
-		Response res = new Response (null, mimeType);
+		Response res = new Response (null, mimeType, true);
+		
+		// resources do not change, so compress each one only once
+		res.setCacheKey (path);
 		
 		try {
 			int k;
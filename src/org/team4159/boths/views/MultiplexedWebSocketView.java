@@ -0,0 +1,341 @@
+package org.team4159.boths.views;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Vector;
+import org.team4159.boths.Request;
+import org.team4159.boths.Response;
+import org.team4159.boths.util.Queue;
+
+/**
+ * This class carries several logical channels over a single WebSocket
+ * connection, so that one connection (and one worker thread) can serve
+ * every stream a dashboard needs.
+ * 
+ * <p>
+ * Every message sent or received by this view starts with a single byte
+ * containing the ID of the channel it belongs to; the rest of the message is
+ * the payload of the channel message. Text messages must remain valid UTF-8, so
+ * in them the ID is encoded as a character instead: the first character of a text
+ * message is the one whose code is the channel ID, which takes two bytes for
+ * IDs of 128 and above. Messages broadcast on a channel are
+ * queued separately for each channel of each connection, and queued messages
+ * are always sent in order of channel priority, so a busy low-priority channel
+ * (such as a log) cannot hold back a high-priority one. Messages from the client
+ * are processed before anything queued is sent.
+ * </p>
+ * 
+ * <p>
+ * Each channel has a limit on the number of messages that may be queued for a
+ * single connection. If a client falls behind, the oldest messages queued on that
+ * channel are discarded.
+ * </p>
+ */
+public class MultiplexedWebSocketView extends BaseWebSocketView
+{
+	/**
+	 * Receives messages sent by clients on a channel.
+	 */
+	public static interface Listener
+	{
+		/**
+		 * Called when a client sends a message on a channel. This method is called
+		 * from the thread serving the client's connection, and should return quickly.
+		 * 
+		 * @param channel	The channel the message was sent on.
+		 * @param msg		The message, excluding the channel ID.
+		 */
+		public void messageReceived (Channel channel, Message msg);
+	}
+	
+	/**
+	 * A logical channel of a {@link MultiplexedWebSocketView}.
+	 */
+	public class Channel
+	{
+		/**
+		 * The ID of this channel, between 0-255 inclusive.
+		 */
+		public final int id;
+		
+		/**
+		 * The priority of this channel. Messages queued on channels with
+		 * higher priorities are sent first.
+		 */
+		public final int priority;
+		
+		private int queueLimit;
+		private Listener listener;
+		
+		Channel (int id, int priority, int queueLimit)
+		{
+			this.id = id;
+			this.priority = priority;
+			setQueueLimit (queueLimit);
+		}
+		
+		/**
+		 * Sets the maximum number of messages of this channel that may be
+		 * waiting to be sent to a single client.
+		 * 
+		 * @param limit		The maximum number of queued messages per connection.
+		 */
+		public void setQueueLimit (int limit)
+		{
+			if (limit < 1)
+				throw new IllegalArgumentException ("queue limit must be at least 1");
+			this.queueLimit = limit;
+		}
+		
+		/**
+		 * Sets the listener for messages sent by clients on this channel.
+		 * 
+		 * @param listener	The {@link Listener}, or null to ignore incoming messages.
+		 */
+		public void setListener (Listener listener)
+		{
+			this.listener = listener;
+		}
+		
+		/**
+		 * Broadcasts a message on this channel.
+		 * 
+		 * @param msg	The {@link BaseWebSocketView.Message} to broadcast.
+		 */
+		public void sendMessage (BaseWebSocketView.Message msg)
+		{
+			int len = msg.data != null ? msg.data.length : 0;
+			int prefix = msg.opcode == OPCODE_TEXT && id >= 0x80 ? 2 : 1;
+			byte[] data = new byte[len + prefix];
+			if (prefix == 2)
+			{
+				// U+0080 to U+00FF in UTF-8
+				data[0] = (byte) (0xc0 | (id >> 6));
+				data[1] = (byte) (0x80 | (id & 0x3f));
+			}
+			else
+				data[0] = (byte) id;
+			if (len > 0)
+				System.arraycopy (msg.data, 0, data, prefix, len);
+			
+			broadcast (this, new Message (msg.opcode, data));
+		}
+		
+		/**
+		 * Broadcasts a binary message on this channel.
+		 * 
+		 * @param data		The binary data to broadcast.
+		 */
+		public void sendMessage (byte[] data)
+		{
+			sendMessage (new Message (OPCODE_BINARY, data));
+		}
+		
+		/**
+		 * Broadcasts a textual message on this channel.
+		 * 
+		 * @param str		The text to broadcast.
+		 */
+		public void sendMessage (String str)
+		{
+			byte[] data;
+			try {
+				data = str.getBytes ("UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				data = str.getBytes ();
+			}
+			sendMessage (new Message (OPCODE_TEXT, data));
+		}
+	}
+	
+	private static class Session
+	{
+		final Queue[] queues = new Queue[256];
+	}
+	
+	private final Channel[] channels = new Channel[256];
+	private Channel[] channelsByPriority = new Channel[0];
+	private final Vector sessions = new Vector ();
+	
+	/**
+	 * Adds a channel to this view.
+	 * 
+	 * @param id			The ID of the channel, between 0-255 inclusive.
+	 * @param priority		The priority of the channel; higher priorities are sent first.
+	 * @param queueLimit	The maximum number of messages that may be queued for a single client.
+	 * @return				The new {@link Channel}.
+	 */
+	public synchronized Channel addChannel (int id, int priority, int queueLimit)
+	{
+		if (id < 0 || id > 255)
+			throw new IllegalArgumentException ("channel ID must be between 0-255 inclusive");
+		if (channels[id] != null)
+			throw new IllegalArgumentException ("channel " + id + " already exists");
+		
+		Channel channel = new Channel (id, priority, queueLimit);
+		channels[id] = channel;
+		
+		// copy on write, keeping channels of equal priority in order of addition
+		Channel[] old = channelsByPriority;
+		Channel[] sorted = new Channel[old.length + 1];
+		int i = 0;
+		while (i < old.length && old[i].priority >= priority)
+		{
+			sorted[i] = old[i];
+			i++;
+		}
+		sorted[i] = channel;
+		System.arraycopy (old, i, sorted, i + 1, old.length - i);
+		channelsByPriority = sorted;
+		
+		return channel;
+	}
+	
+	/**
+	 * Gets a channel of this view.
+	 * 
+	 * @param id	The ID of the channel.
+	 * @return		The {@link Channel}, or null if no such channel exists.
+	 */
+	public Channel getChannel (int id)
+	{
+		if (id < 0 || id > 255)
+			return null;
+		return channels[id];
+	}
+	
+	private void broadcast (Channel channel, Message msg)
+	{
+		long now = System.currentTimeMillis ();
+		synchronized (sessions)
+		{
+			int n = sessions.size ();
+			for (int i = 0; i < n; i++)
+			{
+				Session session = (Session) sessions.elementAt (i);
+				Queue queue;
+				
+				synchronized (session)
+				{
+					queue = session.queues[channel.id];
+					if (queue == null)
+						queue = session.queues[channel.id] = new Queue ();
+				}
+				
+				synchronized (queue)
+				{
+					while (queue.size () >= channel.queueLimit)
+						queue.poll ();
+					queue.add (msg, now);
+				}
+				
+				synchronized (session)
+				{
+					session.notify ();
+				}
+			}
+		}
+	}
+	
+	public void postResponse (Request req, Response res, InputStream is, OutputStream os) throws IOException
+	{
+		if (res.getStatusCode () != 101)
+			return;
+		
+		FragmentProcessor fp = new FragmentProcessor (is);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream ();
+		DataOutputStream dos = new DataOutputStream (os);
+		Session session = new Session ();
+		SessionStatistics stats = openSession (req, fp);
+		stats.queues = session.queues;
+		
+		sessions.addElement (session);
+		
+		try {
+			for (;;)
+			{
+				// client messages (such as commands) go first
+				while (is.available () > 0)
+				{
+					Message msg = receiveMessageFromSocket (fp, baos);
+					switch (msg.opcode)
+					{
+						case OPCODE_CLOSE:
+							return;
+						case OPCODE_PING:
+							sendMessageToSocket (new Message (OPCODE_PONG, msg.data), dos, stats);
+							break;
+						case OPCODE_PONG:
+							stats.recordPong (msg.data);
+							break;
+						default:
+							dispatch (msg);
+					}
+				}
+				
+				sendPingIfDue (dos, stats);
+				
+				// then at most one queued message, from the highest priority channel that has one
+				Message msg = null;
+				Channel[] order = channelsByPriority;
+				for (int i = 0; i < order.length && msg == null; i++)
+				{
+					Queue queue = session.queues[order[i].id];
+					if (queue != null)
+						msg = (Message) queue.poll ();
+				}
+				
+				if (msg != null)
+				{
+					sendMessageToSocket (msg, dos, stats);
+				}
+				else
+				{
+					synchronized (session)
+					{
+						try {
+							session.wait (2);
+						} catch (InterruptedException e) {}
+					}
+				}
+			}
+		} finally {
+			sessions.removeElement (session);
+			closeSession (stats);
+		}
+	}
+	
+	private void dispatch (Message msg)
+	{
+		if (msg.data.length == 0)
+			return;
+		
+		int id = msg.data[0] & 0xff;
+		int prefix = 1;
+		if (msg.opcode == OPCODE_TEXT && (id & 0xe0) == 0xc0)
+		{
+			if (msg.data.length < 2)
+				return;
+			id = ((id & 0x1f) << 6) | (msg.data[1] & 0x3f);
+			prefix = 2;
+		}
+		if (id > 255)
+			return;
+		
+		Channel channel = channels[id];
+		if (channel == null)
+			return;
+		
+		Listener listener = channel.listener;
+		if (listener == null)
+			return;
+		
+		byte[] data = new byte[msg.data.length - prefix];
+		System.arraycopy (msg.data, prefix, data, 0, data.length);
+		listener.messageReceived (channel, new Message (msg.opcode, data));
+	}
+}
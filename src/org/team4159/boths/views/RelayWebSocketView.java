@@ -0,0 +1,338 @@
+package org.team4159.boths.views;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import javax.microedition.io.Connector;
+import javax.microedition.io.StreamConnection;
+import org.apache.commons.codec.binary.Base64;
+import org.team4159.boths.util.StringUtils;
+
+/**
+ * This view connects as a client to a {@link BroadcastWebSocketView} on another
+ * server and re-broadcasts every message it receives to its own clients.
+ * 
+ * <p>
+ * Running a relay on a laptop or coprocessor means the robot only ever serves
+ * a single client, no matter how many people are watching. Each message is
+ * encoded once and the same frame is written to every client of the relay.
+ * If the connection to the upstream server is lost, the relay reconnects,
+ * waiting longer after each consecutive failure.
+ * </p>
+ * 
+ * <p>
+ * The relay must be {@link #start() started} separately from the {@link org.team4159.boths.Server}
+ * it is routed on.
+ * </p>
+ */
+public class RelayWebSocketView extends BroadcastWebSocketView
+{
+	private class Upstream extends Thread
+	{
+		public void run ()
+		{
+			int delay = minimumReconnectDelay;
+			
+			while (keepGoing)
+			{
+				try {
+					relay ();
+					delay = minimumReconnectDelay;
+				} catch (IOException e) {
+					if (keepGoing)
+						System.err.println ("relay to " + host + ":" + port + path + " failed: " + e);
+				} finally {
+					connected = false;
+				}
+				
+				synchronized (lock)
+				{
+					if (!keepGoing)
+						return;
+					try {
+						lock.wait (delay);
+					} catch (InterruptedException e) {}
+				}
+				
+				delay = Math.min (delay * 2, maximumReconnectDelay);
+				reconnectCount++;
+			}
+		}
+	}
+	
+	private final String host;
+	private final int port;
+	private final String path;
+	
+	private final Object lock = new Object ();
+	private final Random random = new Random ();
+	private Thread thread;
+	private boolean keepGoing;
+	private StreamConnection upstream;
+	
+	private int minimumReconnectDelay = 250;
+	private int maximumReconnectDelay = 8000;
+	
+	private boolean connected;
+	private int reconnectCount;
+	private long messagesRelayed;
+	private long bytesRelayed;
+	private long lastMessageTime;
+	
+	/**
+	 * Creates a {@link RelayWebSocketView} that relays messages from the given server.
+	 * 
+	 * @param host	The address of the upstream server.
+	 * @param port	The TCP port of the upstream server.
+	 * @param path	The path of the {@link BroadcastWebSocketView} on the upstream server.
+	 */
+	public RelayWebSocketView (String host, int port, String path)
+	{
+		if (port < 1 || port > 65535)
+			throw new IllegalArgumentException ("port must be between 1-65535 inclusive");
+		if (!path.startsWith ("/"))
+			throw new IllegalArgumentException ("path must begin with /");
+		
+		this.host = host;
+		this.port = port;
+		this.path = path;
+	}
+	
+	/**
+	 * Sets the delays between attempts to reconnect to the upstream server.
+	 * The delay starts at the minimum and doubles after each failed attempt,
+	 * up to the maximum.
+	 * 
+	 * @param min	The minimum delay in milliseconds.
+	 * @param max	The maximum delay in milliseconds.
+	 */
+	public void setReconnectDelay (int min, int max)
+	{
+		if (min < 1 || max < min)
+			throw new IllegalArgumentException ("delays must be positive and min must not be greater than max");
+		minimumReconnectDelay = min;
+		maximumReconnectDelay = max;
+	}
+	
+	/**
+	 * Starts relaying messages.
+	 */
+	public synchronized void start ()
+	{
+		if (thread != null)
+			throw new IllegalStateException ("relay already started");
+		keepGoing = true;
+		(thread = new Upstream ()).start ();
+	}
+	
+	/**
+	 * Stops relaying messages and disconnects from the upstream server.
+	 */
+	public synchronized void stop ()
+	{
+		if (thread == null)
+			throw new IllegalStateException ("relay already stopped");
+		
+		synchronized (lock)
+		{
+			keepGoing = false;
+			lock.notifyAll ();
+			
+			if (upstream != null)
+			{
+				try {
+					upstream.close ();
+				} catch (IOException e) {}
+			}
+		}
+		
+		try {
+			thread.join ();
+		} catch (InterruptedException e) {}
+		thread = null;
+	}
+	
+	/**
+	 * Checks whether the relay is currently connected to the upstream server.
+	 * 
+	 * @return true if connected.
+	 */
+	public boolean isConnected ()
+	{
+		return connected;
+	}
+	
+	/**
+	 * Gets the number of times the relay has reconnected to the upstream server.
+	 * 
+	 * @return	The number of reconnection attempts.
+	 */
+	public int getReconnectCount ()
+	{
+		return reconnectCount;
+	}
+	
+	/**
+	 * Gets the number of messages received from the upstream server.
+	 * 
+	 * @return	The number of relayed messages.
+	 */
+	public long getMessagesRelayed ()
+	{
+		return messagesRelayed;
+	}
+	
+	/**
+	 * Gets the number of payload bytes received from the upstream server.
+	 * 
+	 * @return	The number of relayed bytes.
+	 */
+	public long getBytesRelayed ()
+	{
+		return bytesRelayed;
+	}
+	
+	/**
+	 * Gets the time since the last message was received from the upstream server.
+	 * Together with {@link #getLongestQueueLength()}, this shows how stale the data
+	 * seen by clients of the relay may be.
+	 * 
+	 * @return	The time in milliseconds, or -1 if no message has been received yet.
+	 */
+	public long getTimeSinceLastMessage ()
+	{
+		long last = lastMessageTime;
+		return last == 0 ? -1 : System.currentTimeMillis () - last;
+	}
+	
+	private void relay () throws IOException
+	{
+		StreamConnection sc = (StreamConnection) Connector.open ("socket://" + host + ":" + port);
+		
+		synchronized (lock)
+		{
+			if (!keepGoing)
+			{
+				sc.close ();
+				return;
+			}
+			upstream = sc;
+		}
+		
+		InputStream is = null;
+		OutputStream os = null;
+		
+		try {
+			is = sc.openInputStream ();
+			os = sc.openOutputStream ();
+			DataOutputStream dos = new DataOutputStream (os);
+			
+			handshake (is, dos);
+			connected = true;
+			
+			FragmentProcessor fp = new FragmentProcessor (is);
+			fp.expectMask = false;
+			ByteArrayOutputStream baos = new ByteArrayOutputStream ();
+			
+			while (keepGoing)
+			{
+				Message msg = receiveMessageFromSocket (fp, baos);
+				switch (msg.opcode)
+				{
+					case OPCODE_CLOSE:
+						sendMaskedMessageToSocket (new Message (OPCODE_CLOSE, null), dos, nextMaskingKey ());
+						return;
+					case OPCODE_PING:
+						sendMaskedMessageToSocket (new Message (OPCODE_PONG, msg.data), dos, nextMaskingKey ());
+						break;
+					case OPCODE_PONG:
+						break;
+					default:
+						lastMessageTime = System.currentTimeMillis ();
+						messagesRelayed++;
+						bytesRelayed += msg.data.length;
+						sendMessage (msg);
+				}
+			}
+		} finally {
+			synchronized (lock)
+			{
+				upstream = null;
+			}
+			
+			try {
+				if (is != null)
+					is.close ();
+				if (os != null)
+					os.close ();
+				sc.close ();
+			} catch (IOException e) {}
+		}
+	}
+	
+	private void handshake (InputStream is, DataOutputStream dos) throws IOException
+	{
+		byte[] nonce = new byte[16];
+		for (int i = 0; i < nonce.length; i++)
+			nonce[i] = (byte) random.nextInt ();
+		String key = new String (Base64.encodeBase64 (nonce));
+		
+		String request =
+			"GET " + path + " HTTP/1.1\r\n" +
+			"Host: " + host + ":" + port + "\r\n" +
+			"Upgrade: websocket\r\n" +
+			"Connection: Upgrade\r\n" +
+			"Sec-WebSocket-Key: " + key + "\r\n" +
+			"Sec-WebSocket-Version: 13\r\n" +
+			"\r\n";
+		dos.write (request.getBytes ());
+		dos.flush ();
+		
+		// read the response head up to the blank line
+		ByteArrayOutputStream head = new ByteArrayOutputStream ();
+		int state = 0;
+		while (state < 4)
+		{
+			int k = is.read ();
+			if (k < 0)
+				throw new EOFException ("connection closed during handshake");
+			if (head.size () >= 4096)
+				throw new IOException ("handshake response too large");
+			head.write (k);
+			
+			if ((k == '\r' && (state & 1) == 0) || (k == '\n' && (state & 1) == 1))
+				state++;
+			else
+				state = (k == '\r') ? 1 : 0;
+		}
+		
+		String[] lines = StringUtils.splitByWholeSeparator (new String (head.toByteArray ()), "\r\n");
+		String[] statusLine = StringUtils.splitByWholeSeparator (lines[0], " ");
+		if (statusLine.length < 2 || !statusLine[1].equals ("101"))
+			throw new IOException ("upstream refused WebSocket upgrade: " + lines[0]);
+		
+		String expectedAccept = computeAcceptKey (key);
+		boolean accepted = false;
+		for (int i = 1; i < lines.length; i++)
+		{
+			int sep = lines[i].indexOf (':');
+			if (sep < 0)
+				continue;
+			if (lines[i].substring (0, sep).trim ().toLowerCase ().equals ("sec-websocket-accept"))
+				accepted = lines[i].substring (sep + 1).trim ().equals (expectedAccept);
+		}
+		
+		if (!accepted)
+			throw new IOException ("bad Sec-WebSocket-Accept from upstream");
+	}
+	
+	private byte[] nextMaskingKey ()
+	{
+		int r = random.nextInt ();
+		return new byte[] { (byte) (r >> 24), (byte) (r >> 16), (byte) (r >> 8), (byte) r };
+	}
+}
@@ -0,0 +1,195 @@
+package org.team4159.boths.views;
+
+import org.team4159.boths.util.Queue;
+
+/**
+ * Statistics of a single WebSocket connection, for finding out how stale the
+ * data seen by a client is.
+ * 
+ * <p>
+ * Instances are created by {@link BaseWebSocketView} for every connection and
+ * can be retrieved while the connection is open with
+ * {@link BaseWebSocketView#getSessionStatistics()}. Byte counts include the
+ * WebSocket framing.
+ * </p>
+ */
+public class SessionStatistics
+{
+	private static int nextId = 1;
+	
+	private final int id;
+	private final String path;
+	private final long startTime;
+	
+	Queue[] queues;
+	
+	private long bytesSent, bytesReceived;
+	private long messagesSent, messagesReceived;
+	private long lastPingTime;
+	private long roundTripTime = -1;
+	
+	SessionStatistics (String path)
+	{
+		synchronized (SessionStatistics.class)
+		{
+			this.id = nextId++;
+		}
+		this.path = path;
+		this.startTime = System.currentTimeMillis ();
+	}
+	
+	/**
+	 * Gets a number identifying this connection, unique within the server.
+	 * 
+	 * @return	The ID of the connection.
+	 */
+	public int getId () { return id; }
+	
+	/**
+	 * Gets the path that was requested to open this connection.
+	 * 
+	 * @return	The request path.
+	 */
+	public String getPath () { return path; }
+	
+	/**
+	 * Gets the time at which this connection was opened.
+	 * 
+	 * @return	The time as returned by {@link System#currentTimeMillis()}.
+	 */
+	public long getStartTime () { return startTime; }
+	
+	/**
+	 * Gets the number of bytes sent to the client.
+	 * 
+	 * @return	The number of bytes sent.
+	 */
+	public synchronized long getBytesSent () { return bytesSent; }
+	
+	/**
+	 * Gets the number of bytes received from the client.
+	 * 
+	 * @return	The number of bytes received.
+	 */
+	public synchronized long getBytesReceived () { return bytesReceived; }
+	
+	/**
+	 * Gets the number of messages sent to the client, including control messages.
+	 * 
+	 * @return	The number of messages sent.
+	 */
+	public synchronized long getMessagesSent () { return messagesSent; }
+	
+	/**
+	 * Gets the number of messages received from the client, including control messages.
+	 * 
+	 * @return	The number of messages received.
+	 */
+	public synchronized long getMessagesReceived () { return messagesReceived; }
+	
+	/**
+	 * Gets the round-trip time measured by the most recent PING answered by the client.
+	 * 
+	 * @return	The round-trip time in milliseconds, or -1 if it has not been measured yet.
+	 */
+	public synchronized long getRoundTripTime () { return roundTripTime; }
+	
+	/**
+	 * Gets the number of messages waiting to be sent to the client.
+	 * 
+	 * @return	The number of queued messages.
+	 */
+	public int getQueueLength ()
+	{
+		Queue[] queues = this.queues;
+		if (queues == null)
+			return 0;
+		
+		int length = 0;
+		for (int i = 0; i < queues.length; i++)
+			if (queues[i] != null)
+				length += queues[i].size ();
+		return length;
+	}
+	
+	/**
+	 * Gets the time the oldest message waiting to be sent to the client has been waiting.
+	 * 
+	 * @return	The age of the oldest queued message in milliseconds, or 0 if no message is queued.
+	 */
+	public long getOldestUnsentAge ()
+	{
+		Queue[] queues = this.queues;
+		if (queues == null)
+			return 0;
+		
+		long oldest = Long.MAX_VALUE;
+		for (int i = 0; i < queues.length; i++)
+		{
+			if (queues[i] == null)
+				continue;
+			long time = queues[i].elementTime ();
+			if (time >= 0 && time < oldest)
+				oldest = time;
+		}
+		
+		if (oldest == Long.MAX_VALUE)
+			return 0;
+		return Math.max (0, System.currentTimeMillis () - oldest);
+	}
+	
+	synchronized void recordSent (int bytes, int messages)
+	{
+		bytesSent += bytes;
+		messagesSent += messages;
+	}
+	
+	synchronized void recordReceivedBytes (long bytes)
+	{
+		bytesReceived += bytes;
+	}
+	
+	synchronized void recordReceivedMessage ()
+	{
+		messagesReceived++;
+	}
+	
+	synchronized boolean isPingDue (long now, int interval)
+	{
+		return interval > 0 && now - lastPingTime >= interval;
+	}
+	
+	/**
+	 * Creates the payload of a PING carrying the time it was sent.
+	 */
+	synchronized byte[] createPingPayload (long now)
+	{
+		lastPingTime = now;
+		
+		byte[] payload = new byte[8];
+		for (int i = 7; i >= 0; i--)
+		{
+			payload[i] = (byte) now;
+			now >>>= 8;
+		}
+		return payload;
+	}
+	
+	/**
+	 * Measures the round-trip time from the payload of a PONG, if it answers
+	 * a PING created by {@link #createPingPayload(long)}.
+	 */
+	synchronized void recordPong (byte[] payload)
+	{
+		if (payload == null || payload.length != 8)
+			return;
+		
+		long sent = 0;
+		for (int i = 0; i < 8; i++)
+			sent = (sent << 8) | (payload[i] & 0xff);
+		
+		long now = System.currentTimeMillis ();
+		if (sent > 0 && sent <= now && sent >= startTime)
+			roundTripTime = now - sent;
+	}
+}
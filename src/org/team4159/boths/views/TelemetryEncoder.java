@@ -0,0 +1,376 @@
+package org.team4159.boths.views;
+
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import org.team4159.boths.util.StringUtils;
+
+/**
+ * Encodes a fixed set of telemetry fields into compact binary WebSocket messages.
+ * 
+ * <p>
+ * Fields are declared once, before the first frame is encoded. Values are then
+ * set as often as needed, and {@link #encodeFrame()} produces a frame containing
+ * only the fields that have changed since the previous frame. Numbers are sent as
+ * the difference from their previous value, in a variable-length encoding, so
+ * slowly changing values usually take a single byte.
+ * </p>
+ * 
+ * <p>
+ * Every frame is an {@link BaseWebSocketView#OPCODE_BINARY} message laid out as follows
+ * ("varint" is an unsigned LEB128 integer; signed numbers are zigzag-encoded first):
+ * </p>
+ * 
+ * <ul>
+ * <li>one byte: {@link #FRAME_KEY} or {@link #FRAME_DELTA}</li>
+ * <li>varint: the sequence number of the frame</li>
+ * <li>delta frames only: a bitmap of changed fields, one bit per field, least significant bit first</li>
+ * <li>the values of all fields (key frames) or of the changed fields (delta frames), in order of declaration:
+ * 	<ul>
+ * 	<li>integer and fixed-point fields: a signed varint, absolute in key frames and the difference in delta frames</li>
+ * 	<li>boolean fields: one byte in key frames, nothing in delta frames (a change means the value was toggled)</li>
+ * 	<li>string fields: a varint length followed by that many bytes of UTF-8</li>
+ * 	</ul>
+ * </li>
+ * </ul>
+ * 
+ * <p>
+ * A key frame carries the full state and the sequence number of the last delta frame it includes;
+ * clients should ignore delta frames with a sequence number not greater than that of the last key frame.
+ * The field declarations themselves are described by the {@link BaseWebSocketView#OPCODE_TEXT} message
+ * returned by {@link #encodeSchema()}.
+ * </p>
+ * 
+ * <p>This class is not thread-safe.</p>
+ */
+public class TelemetryEncoder
+{
+	/**
+	 * The type of frames containing every field.
+	 */
+	public static final int FRAME_KEY = 0;
+	
+	/**
+	 * The type of frames containing only changed fields.
+	 */
+	public static final int FRAME_DELTA = 1;
+	
+	private static final int TYPE_INTEGER = 0;
+	private static final int TYPE_FIXED = 1;
+	private static final int TYPE_BOOLEAN = 2;
+	private static final int TYPE_STRING = 3;
+	
+	private static final String[] TYPE_NAMES = { "integer", "fixed", "boolean", "string" };
+	
+	private String[] names = new String[8];
+	private int[] types = new int[8];
+	private int[] scales = new int[8];
+	private int count = 0;
+	
+	private long[] current;
+	private long[] previous;
+	private String[] currentStrings;
+	private String[] previousStrings;
+	
+	private int sequence = 0;
+	private final ByteArrayOutputStream out = new ByteArrayOutputStream ();
+	
+	/**
+	 * Declares an integer field.
+	 * 
+	 * @param name	The name of the field.
+	 * @return		The index of the field, for use with the {@code set} methods.
+	 */
+	public int addIntegerField (String name)
+	{
+		return addField (name, TYPE_INTEGER, 1);
+	}
+	
+	/**
+	 * Declares a fixed-point field. Values are rounded to the nearest
+	 * multiple of {@code 1 / scale}; for example, a scale of 100 keeps two
+	 * decimal places.
+	 * 
+	 * @param name	The name of the field.
+	 * @param scale	The number of steps per unit.
+	 * @return		The index of the field, for use with the {@code set} methods.
+	 */
+	public int addFixedField (String name, int scale)
+	{
+		if (scale < 1)
+			throw new IllegalArgumentException ("scale must be positive");
+		return addField (name, TYPE_FIXED, scale);
+	}
+	
+	/**
+	 * Declares a boolean field.
+	 * 
+	 * @param name	The name of the field.
+	 * @return		The index of the field, for use with the {@code set} methods.
+	 */
+	public int addBooleanField (String name)
+	{
+		return addField (name, TYPE_BOOLEAN, 1);
+	}
+	
+	/**
+	 * Declares a string field.
+	 * 
+	 * @param name	The name of the field.
+	 * @return		The index of the field, for use with the {@code set} methods.
+	 */
+	public int addStringField (String name)
+	{
+		return addField (name, TYPE_STRING, 1);
+	}
+	
+	private int addField (String name, int type, int scale)
+	{
+		if (current != null)
+			throw new IllegalStateException ("fields must be declared before values are set");
+		
+		if (count == names.length)
+		{
+			names = (String[]) grow (names, new String[count * 2]);
+			types = (int[]) grow (types, new int[count * 2]);
+			scales = (int[]) grow (scales, new int[count * 2]);
+		}
+		
+		names[count] = name;
+		types[count] = type;
+		scales[count] = scale;
+		return count++;
+	}
+	
+	private Object grow (Object src, Object dst)
+	{
+		System.arraycopy (src, 0, dst, 0, count);
+		return dst;
+	}
+	
+	private void seal ()
+	{
+		if (current != null)
+			return;
+		
+		current = new long[count];
+		previous = new long[count];
+		currentStrings = new String[count];
+		previousStrings = new String[count];
+		
+		for (int i = 0; i < count; i++)
+			if (types[i] == TYPE_STRING)
+				currentStrings[i] = previousStrings[i] = "";
+	}
+	
+	/**
+	 * Sets the value of an integer or fixed-point field.
+	 * 
+	 * @param field	The index of the field.
+	 * @param value	The new value.
+	 */
+	public void set (int field, long value)
+	{
+		seal ();
+		checkType (field, TYPE_INTEGER, TYPE_FIXED);
+		current[field] = types[field] == TYPE_FIXED ? value * scales[field] : value;
+	}
+	
+	/**
+	 * Sets the value of a fixed-point or integer field.
+	 * 
+	 * @param field	The index of the field.
+	 * @param value	The new value.
+	 */
+	public void set (int field, double value)
+	{
+		seal ();
+		checkType (field, TYPE_FIXED, TYPE_INTEGER);
+		current[field] = (long) Math.floor (value * scales[field] + 0.5);
+	}
+	
+	/**
+	 * Sets the value of a boolean field.
+	 * 
+	 * @param field	The index of the field.
+	 * @param value	The new value.
+	 */
+	public void set (int field, boolean value)
+	{
+		seal ();
+		checkType (field, TYPE_BOOLEAN, TYPE_BOOLEAN);
+		current[field] = value ? 1 : 0;
+	}
+	
+	/**
+	 * Sets the value of a string field.
+	 * 
+	 * @param field	The index of the field.
+	 * @param value	The new value.
+	 */
+	public void set (int field, String value)
+	{
+		seal ();
+		checkType (field, TYPE_STRING, TYPE_STRING);
+		currentStrings[field] = value != null ? value : "";
+	}
+	
+	private void checkType (int field, int type, int altType)
+	{
+		if (field < 0 || field >= count)
+			throw new IllegalArgumentException ("no such field: " + field);
+		if (types[field] != type && types[field] != altType)
+			throw new IllegalArgumentException ("field " + names[field] + " is not of type " + TYPE_NAMES[type]);
+	}
+	
+	/**
+	 * Returns the sequence number of the last frame encoded by {@link #encodeFrame()}.
+	 * 
+	 * @return	The sequence number.
+	 */
+	public int getSequence ()
+	{
+		return sequence;
+	}
+	
+	/**
+	 * Encodes the fields that have changed since the previous call to this
+	 * method into a delta frame, and advances the sequence number.
+	 * 
+	 * @return	The delta frame.
+	 */
+	public BaseWebSocketView.Message encodeFrame ()
+	{
+		seal ();
+		sequence++;
+		
+		out.reset ();
+		out.write (FRAME_DELTA);
+		writeVarint (sequence & 0xffffffffL);
+		
+		byte[] bitmap = new byte[(count + 7) / 8];
+		for (int i = 0; i < count; i++)
+			if (changed (i))
+				bitmap[i >> 3] |= 1 << (i & 7);
+		out.write (bitmap, 0, bitmap.length);
+		
+		for (int i = 0; i < count; i++)
+		{
+			if (!changed (i))
+				continue;
+			
+			switch (types[i])
+			{
+				case TYPE_INTEGER:
+				case TYPE_FIXED:
+					writeSignedVarint (current[i] - previous[i]);
+					break;
+				case TYPE_STRING:
+					writeString (currentStrings[i]);
+					break;
+			}
+			
+			previous[i] = current[i];
+			previousStrings[i] = currentStrings[i];
+		}
+		
+		return new BaseWebSocketView.Message (BaseWebSocketView.OPCODE_BINARY, out.toByteArray ());
+	}
+	
+	/**
+	 * Encodes a key frame of the state as of the last frame encoded by
+	 * {@link #encodeFrame()}. Values set since then are not included.
+	 * 
+	 * @return	The key frame.
+	 */
+	public BaseWebSocketView.Message encodeKeyframe ()
+	{
+		seal ();
+		
+		out.reset ();
+		out.write (FRAME_KEY);
+		writeVarint (sequence & 0xffffffffL);
+		
+		for (int i = 0; i < count; i++)
+		{
+			switch (types[i])
+			{
+				case TYPE_INTEGER:
+				case TYPE_FIXED:
+					writeSignedVarint (previous[i]);
+					break;
+				case TYPE_BOOLEAN:
+					out.write ((int) previous[i]);
+					break;
+				case TYPE_STRING:
+					writeString (previousStrings[i]);
+					break;
+			}
+		}
+		
+		return new BaseWebSocketView.Message (BaseWebSocketView.OPCODE_BINARY, out.toByteArray ());
+	}
+	
+	/**
+	 * Describes the declared fields as a JSON array of objects with
+	 * {@code "name"}, {@code "type"} and, for fixed-point fields, {@code "scale"}
+	 * properties, in order of declaration.
+	 * 
+	 * @return	The description of the fields as a text message.
+	 */
+	public BaseWebSocketView.Message encodeSchema ()
+	{
+		StringBuffer sb = new StringBuffer ("[");
+		for (int i = 0; i < count; i++)
+		{
+			if (i > 0)
+				sb.append (',');
+			sb.append ("{\"name\":\"").append (StringUtils.jsonEscape (names[i]));
+			sb.append ("\",\"type\":\"").append (TYPE_NAMES[types[i]]).append ('"');
+			if (types[i] == TYPE_FIXED)
+				sb.append (",\"scale\":").append (scales[i]);
+			sb.append ('}');
+		}
+		sb.append (']');
+		
+		return new BaseWebSocketView.Message (BaseWebSocketView.OPCODE_TEXT, toUTF8 (sb.toString ()));
+	}
+	
+	private boolean changed (int i)
+	{
+		if (types[i] == TYPE_STRING)
+			return !currentStrings[i].equals (previousStrings[i]);
+		else
+			return current[i] != previous[i];
+	}
+	
+	private void writeVarint (long v)
+	{
+		while ((v & ~0x7fL) != 0)
+		{
+			out.write ((int) (v & 0x7f) | 0x80);
+			v >>>= 7;
+		}
+		out.write ((int) v);
+	}
+	
+	private void writeSignedVarint (long v)
+	{
+		writeVarint ((v << 1) ^ (v >> 63));
+	}
+	
+	private void writeString (String str)
+	{
+		byte[] data = toUTF8 (str);
+		writeVarint (data.length);
+		out.write (data, 0, data.length);
+	}
+	
+	private static byte[] toUTF8 (String str)
+	{
+		try {
+			return str.getBytes ("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			return str.getBytes ();
+		}
+	}
+}
@@ -0,0 +1,138 @@
+package org.team4159.boths.views;
+
+/**
+ * This view broadcasts telemetry encoded by a {@link TelemetryEncoder} to all
+ * WebSocket connections currently connected to it.
+ * 
+ * <p>
+ * Set the values of the fields on the encoder returned by {@link #getEncoder()},
+ * then call {@link #publish()} once per tick; only the changed fields are sent.
+ * Clients that connect receive the schema and a key frame of the current state
+ * first, followed by every delta frame published after it. A key frame is also
+ * broadcast every {@link #setKeyframeInterval(int) few frames} so that clients
+ * can resynchronize.
+ * </p>
+ * 
+ * <p>
+ * The schema is broadcast along with the first frame, which is relative to the
+ * initial state of all fields (zero, false or the empty string).
+ * </p>
+ */
+public class TelemetryWebSocketView extends BroadcastWebSocketView
+{
+	private final TelemetryEncoder encoder;
+	private int keyframeInterval = 50;
+	
+	// serializes publish () so that frames are broadcast in order
+	private final Object publishLock = new Object ();
+	
+	private volatile Message schema;
+	
+	// the last key frame encoded and the sequence number it is of, guarded by this view
+	private Message keyframe;
+	private int keyframeSequence;
+	
+	/**
+	 * Creates a {@link TelemetryWebSocketView} with a new encoder.
+	 */
+	public TelemetryWebSocketView ()
+	{
+		this (new TelemetryEncoder ());
+	}
+	
+	/**
+	 * Creates a {@link TelemetryWebSocketView} that publishes frames of the given encoder.
+	 * 
+	 * @param encoder	The {@link TelemetryEncoder} to use.
+	 */
+	public TelemetryWebSocketView (TelemetryEncoder encoder)
+	{
+		this.encoder = encoder;
+	}
+	
+	/**
+	 * Gets the encoder whose fields are published by this view. Declare fields and
+	 * set values on it; access to it must be synchronized on this view if
+	 * {@link #publish()} may be called from another thread.
+	 * 
+	 * @return	The {@link TelemetryEncoder}.
+	 */
+	public TelemetryEncoder getEncoder ()
+	{
+		return encoder;
+	}
+	
+	/**
+	 * Sets the number of frames between broadcasted key frames.
+	 * 
+	 * @param interval	The number of frames, or 0 to only send key frames to new clients.
+	 */
+	public void setKeyframeInterval (int interval)
+	{
+		if (interval < 0)
+			throw new IllegalArgumentException ("interval must not be negative");
+		keyframeInterval = interval;
+	}
+	
+	/**
+	 * Broadcasts the fields that have changed since the last call to this method.
+	 */
+	public void publish ()
+	{
+		synchronized (publishLock)
+		{
+			boolean first = false;
+			Message frame, newKeyframe = null;
+			
+			synchronized (this)
+			{
+				if (schema == null)
+				{
+					schema = encoder.encodeSchema ();
+					first = true;
+				}
+				frame = encoder.encodeFrame ();
+				if (keyframeInterval > 0 && encoder.getSequence () % keyframeInterval == 0)
+					newKeyframe = getKeyframe ();
+			}
+			
+			// broadcast without holding this view, which new clients lock in getInitialMessages ();
+			// one that connects in between receives this frame after a key frame that
+			// already includes it, and ignores it by its sequence number
+			if (first)
+				sendMessage (schema);
+			sendMessage (frame);
+			if (newKeyframe != null)
+				sendMessage (newKeyframe);
+		}
+	}
+	
+	protected Message[] getInitialMessages ()
+	{
+		Message schema = this.schema;
+		if (schema == null)
+			return null;
+		
+		Message keyframe;
+		synchronized (this)
+		{
+			keyframe = getKeyframe ();
+		}
+		return new Message[] { schema, keyframe };
+	}
+	
+	/**
+	 * Gets a key frame of the last published frame, encoding it only if it has
+	 * not been encoded yet. Must be called while synchronized on this view.
+	 */
+	private Message getKeyframe ()
+	{
+		int sequence = encoder.getSequence ();
+		if (keyframe == null || keyframeSequence != sequence)
+		{
+			keyframe = encoder.encodeKeyframe ();
+			keyframeSequence = sequence;
+		}
+		return keyframe;
+	}
+}
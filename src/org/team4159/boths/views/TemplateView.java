@@ -29,7 +29,7 @@ public class TemplateView extends View
 
 	public Response getResponse (Request req, Route route)
 	{
-		return template.renderToResponse (getContext (req));
+		return template.renderToResponse (getContext (req), true);
 	}
 	
 	/**
@@ -0,0 +1,110 @@
+package org.team4159.boths.views;
+
+import java.util.Vector;
+import org.team4159.boths.Request;
+import org.team4159.boths.Response;
+import org.team4159.boths.Route;
+import org.team4159.boths.View;
+import org.team4159.boths.util.StringUtils;
+
+/**
+ * This view returns a JSON snapshot of the {@link SessionStatistics} of every
+ * connection open on a set of WebSocket views.
+ * 
+ * <p>
+ * The response is an object with a {@code "time"} property (the current time in
+ * milliseconds) and a {@code "sessions"} array containing one object per connection
+ * with the properties {@code id}, {@code path}, {@code age}, {@code rtt},
+ * {@code queueLength}, {@code oldestUnsentAge}, {@code bytesSent},
+ * {@code bytesReceived}, {@code messagesSent} and {@code messagesReceived}.
+ * Times are in milliseconds; {@code rtt} is -1 until it has been measured.
+ * </p>
+ * 
+ * <p>
+ * The round-trip time is measured with PINGs, which views do not send by default.
+ * Adding a view enables them every {@link #DEFAULT_PING_INTERVAL} milliseconds,
+ * unless a {@link BaseWebSocketView#setPingInterval(int) ping interval} was already set.
+ * </p>
+ */
+public class WebSocketStatisticsView extends View
+{
+	/**
+	 * The ping interval given to views added without one, in milliseconds.
+	 */
+	public static final int DEFAULT_PING_INTERVAL = 1000;
+	
+	private final Vector views = new Vector ();
+	
+	/**
+	 * Creates a {@link WebSocketStatisticsView} reporting on no views.
+	 * Use {@link #addView(BaseWebSocketView)} to add some.
+	 */
+	public WebSocketStatisticsView ()
+	{
+	}
+	
+	/**
+	 * Creates a {@link WebSocketStatisticsView} reporting on the given view.
+	 * 
+	 * @param view	The view to report on.
+	 */
+	public WebSocketStatisticsView (BaseWebSocketView view)
+	{
+		addView (view);
+	}
+	
+	/**
+	 * Adds a view whose connections will be reported on, and enables PINGs on it
+	 * if it has no ping interval, so that round-trip times are measured.
+	 * 
+	 * @param view	The view to report on.
+	 */
+	public void addView (BaseWebSocketView view)
+	{
+		if (!views.contains (view))
+			views.addElement (view);
+		if (view.pingInterval == 0)
+			view.setPingInterval (DEFAULT_PING_INTERVAL);
+	}
+	
+	public Response getResponse (Request req, Route route)
+	{
+		long now = System.currentTimeMillis ();
+		
+		StringBuffer sb = new StringBuffer ();
+		sb.append ("{\"time\":").append (now).append (",\"sessions\":[");
+		
+		boolean first = true;
+		int nviews = views.size ();
+		for (int i = 0; i < nviews; i++)
+		{
+			SessionStatistics[] sessions = ((BaseWebSocketView) views.elementAt (i)).getSessionStatistics ();
+			for (int j = 0; j < sessions.length; j++)
+			{
+				SessionStatistics s = sessions[j];
+				
+				if (!first)
+					sb.append (',');
+				first = false;
+				
+				sb.append ("{\"id\":").append (s.getId ());
+				sb.append (",\"path\":\"").append (StringUtils.jsonEscape (s.getPath ())).append ('"');
+				sb.append (",\"age\":").append (now - s.getStartTime ());
+				sb.append (",\"rtt\":").append (s.getRoundTripTime ());
+				sb.append (",\"queueLength\":").append (s.getQueueLength ());
+				sb.append (",\"oldestUnsentAge\":").append (s.getOldestUnsentAge ());
+				sb.append (",\"bytesSent\":").append (s.getBytesSent ());
+				sb.append (",\"bytesReceived\":").append (s.getBytesReceived ());
+				sb.append (",\"messagesSent\":").append (s.getMessagesSent ());
+				sb.append (",\"messagesReceived\":").append (s.getMessagesReceived ());
+				sb.append ('}');
+			}
+		}
+		
+		sb.append ("]}");
+		
+		Response res = new Response (sb.toString (), "application/json", true);
+		res.setHeader ("Cache-Control", "no-cache");
+		return res;
+	}
+}